@@ -0,0 +1,441 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.compiler;
+
+import java.util.List;
+
+import javax.lang.model.type.TypeKind;
+
+/**
+ * Writes the codec class of a message layout. The codec reads and writes each field with shifts on the
+ * array directly, so it allocates nothing but the array fields whose length changed.
+ */
+class CodecWriter {
+
+	private final MessageLayout layout;
+	private final SourceBuilder out = new SourceBuilder();
+	/** Whether the remaining size must be checked before each field, after an array of variable length */
+	private boolean checkRemaining = false;
+
+	CodecWriter(MessageLayout layout) {
+		this.layout = layout;
+	}
+
+	String write() {
+		out.line("// Generated by " + MessageCodecProcessor.class.getSimpleName() + ". Do not edit.");
+		if (!layout.packageName.isEmpty()) {
+			out.line("package " + layout.packageName + ";");
+			out.line();
+		}
+		out.line("/**");
+		out.line(" * Decodes and encodes the payload of {@link " + layout.className + "}.");
+		out.line(" */");
+		out.begin("public final class " + layout.codecName);
+		out.line();
+		out.line("public static final int MIN_PAYLOAD_SIZE = " + layout.getFixedSize() + ";");
+		out.line();
+		out.begin("private " + layout.codecName + "()");
+		out.end();
+		out.line();
+		writeDecode();
+		out.line();
+		writeEncodedSize();
+		out.line();
+		out.begin("public static byte[] encode(" + layout.className + " message)");
+		out.line("byte[] data = new byte[getEncodedSize(message)];");
+		out.line("encode(message, data, 0);");
+		out.line("return data;");
+		out.end();
+		out.line();
+		writeEncode();
+		out.line();
+		writeEncodeToBuffer();
+		if (layout.hasVariableLength()) {
+			out.line();
+			out.begin("private static void checkRemaining(int position, long size, int end)");
+			out.begin("if (size > end - position)");
+			out.line("throw new IllegalArgumentException(\"Payload is too short! required=\" + size + \", remaining=\" + (end - position));");
+			out.end();
+			out.end();
+		}
+		out.line();
+		out.end();
+		return out.toString();
+	}
+
+	private void writeDecode() {
+		List<FieldLayout> fields = layout.fields;
+		out.begin("public static void decode(" + layout.className + " message, byte[] data, int offset, int length)");
+		out.begin("if (length < MIN_PAYLOAD_SIZE)");
+		out.line("throw new IllegalArgumentException(\"Payload is too short! length=\" + length + \", minimum=\" + MIN_PAYLOAD_SIZE);");
+		out.end();
+		if (fields.isEmpty()) {
+			out.end();
+			return;
+		}
+		if (layout.hasVariableLength()) {
+			out.line("int end = offset + length;");
+		}
+		out.line("int position = offset;");
+
+		checkRemaining = false;
+		for (int i = 0; i < fields.size(); ++i) {
+			FieldLayout field = fields.get(i);
+			if (field.isBitField()) {
+				i = writeDecodeBitGroup(fields, i);
+			} else if (field.isArray()) {
+				writeDecodeArray(field);
+			} else {
+				if (checkRemaining) {
+					out.line("checkRemaining(position, " + field.size + ", end);");
+				}
+				out.line("message." + field.name + " = " + convert(readBytes("position", field.size, field.littleEndian, isLongType(field.kind)), field, field.size * 8, isLongType(field.kind)) + ";");
+				out.line("position += " + field.size + ";");
+			}
+		}
+		out.end();
+	}
+
+	/**
+	 * Returns the index of the last field in the bit group.
+	 */
+	private int writeDecodeBitGroup(List<FieldLayout> fields, int first) {
+		int last = getLastOfBitGroup(fields, first);
+		int groupBits = getGroupBits(fields, first, last);
+		boolean asLong = groupBits > 32;
+		if (checkRemaining) {
+			out.line("checkRemaining(position, " + groupBits / 8 + ", end);");
+		}
+		out.begin("");
+		out.line((asLong ? "long" : "int") + " group = " + readBytes("position", groupBits / 8, false, asLong) + ";");
+		for (int i = first; i <= last; ++i) {
+			FieldLayout field = fields.get(i);
+			String value = field.bitShift == 0 ? "group" : "(group >>> " + field.bitShift + ")";
+			if (field.bits < (asLong ? 64 : 32)) {
+				value = value + " & " + mask(field.bits, asLong);
+			}
+			out.line("message." + field.name + " = " + convert(value, field, field.bits, asLong) + ";");
+		}
+		out.line("position += " + groupBits / 8 + ";");
+		out.end();
+		return last;
+	}
+
+	private void writeDecodeArray(FieldLayout field) {
+		String array = "message." + field.name;
+		out.begin("");
+		switch (field.arrayKind) {
+			case FIXED:
+				out.line("int count = " + field.length + ";");
+				break;
+			case COUNTED:
+				out.line("int count = " + countExpression(getField(field.lengthField)) + ";");
+				out.begin("if (count < 0)");
+				out.line("throw new IllegalArgumentException(\"Invalid length of '" + field.name + "'! count=\" + count);");
+				out.end();
+				break;
+			default:
+				out.line("int count = " + (field.size == 1 ? "end - position" : "(end - position) / " + field.size) + ";");
+				break;
+		}
+		if (field.arrayKind == FieldLayout.ArrayKind.COUNTED || (checkRemaining && field.arrayKind == FieldLayout.ArrayKind.FIXED)) {
+			out.line("checkRemaining(position, " + (field.size == 1 ? "count" : "(long) count * " + field.size) + ", end);");
+		}
+		out.begin("if (" + array + " == null || " + array + ".length != count)");
+		out.line(array + " = new " + FieldLayout.typeName(field.kind) + "[count];");
+		out.end();
+		if (field.kind == TypeKind.BYTE && field.size == 1) {
+			out.line("System.arraycopy(data, position, " + array + ", 0, count);");
+			out.line("position += count;");
+		} else {
+			boolean asLong = isLongType(field.kind);
+			out.begin("for (int i = 0; i < count; ++i, position += " + field.size + ")");
+			out.line(array + "[i] = " + convert(readBytes("position", field.size, field.littleEndian, asLong), field, field.size * 8, asLong) + ";");
+			out.end();
+		}
+		out.end();
+		if (field.arrayKind != FieldLayout.ArrayKind.FIXED) {
+			checkRemaining = true;
+		}
+	}
+
+	private void writeEncodedSize() {
+		StringBuilder size = new StringBuilder("MIN_PAYLOAD_SIZE");
+		for (FieldLayout field : layout.fields) {
+			if (field.arrayKind == FieldLayout.ArrayKind.COUNTED || field.arrayKind == FieldLayout.ArrayKind.REST) {
+				String array = "message." + field.name;
+				size.append(" + (").append(array).append(" == null ? 0 : ").append(array).append(".length");
+				if (field.size != 1) {
+					size.append(" * ").append(field.size);
+				}
+				size.append(")");
+			}
+		}
+		out.begin("public static int getEncodedSize(" + layout.className + " message)");
+		out.line("return " + size + ";");
+		out.end();
+	}
+
+	private void writeEncode() {
+		List<FieldLayout> fields = layout.fields;
+		out.line("/**");
+		out.line(" * Encode the payload into the given array.");
+		out.line(" *");
+		out.line(" * @return The size of the encoded payload.");
+		out.line(" */");
+		out.begin("public static int encode(" + layout.className + " message, byte[] target, int offset)");
+		out.line("int size = getEncodedSize(message);");
+		out.begin("if (target.length - offset < size)");
+		out.line("throw new IllegalArgumentException(\"Not enough space to encode! required=\" + size + \", available=\" + (target.length - offset));");
+		out.end();
+		if (!fields.isEmpty()) {
+			out.line("int position = offset;");
+		}
+		for (int i = 0; i < fields.size(); ++i) {
+			FieldLayout field = fields.get(i);
+			if (field.isBitField()) {
+				i = writeEncodeBitGroup(fields, i);
+			} else if (field.isArray()) {
+				writeEncodeArray(field);
+			} else {
+				String value = "message." + field.name;
+				if (field.countedArray != null) {
+					String array = "message." + field.countedArray;
+					writeCountRangeCheck(field, array);
+					value = "(" + array + " == null ? 0 : " + array + ".length)";
+				}
+				writeValue(value, field, "position");
+				out.line("position += " + field.size + ";");
+			}
+		}
+		out.line("return size;");
+		out.end();
+	}
+
+	/**
+	 * Reject an array whose length doesn't fit the width and signedness of its count field, which would
+	 * be truncated silently and shift the following fields.
+	 */
+	private void writeCountRangeCheck(FieldLayout countField, String array) {
+		int countBits = Math.min(countField.size * 8, 63);
+		long maxCount = countField.signed ? (1L << (countBits - 1)) - 1 : (1L << countBits) - 1;
+		if (maxCount >= Integer.MAX_VALUE) {
+			return;
+		}
+		out.begin("if (" + array + " != null && " + array + ".length > " + maxCount + ")");
+		out.line("throw new IllegalArgumentException(\"'" + countField.countedArray + "' has too many elements for '" + countField.name
+				+ "'! length=\" + " + array + ".length + \", max=" + maxCount + "\");");
+		out.end();
+	}
+
+	private void writeEncodeToBuffer() {
+		out.line("/**");
+		out.line(" * Encode the payload into the buffer from its position.");
+		out.line(" */");
+		out.begin("public static void encode(" + layout.className + " message, java.nio.ByteBuffer target)");
+		out.line("int size = getEncodedSize(message);");
+		out.begin("if (target.remaining() < size)");
+		out.line("throw new java.nio.BufferOverflowException();");
+		out.end();
+		out.begin("if (target.hasArray())");
+		out.line("encode(message, target.array(), target.arrayOffset() + target.position());");
+		out.line("target.position(target.position() + size);");
+		out.end();
+		out.begin("else");
+		out.line("target.put(encode(message));");
+		out.end();
+		out.end();
+	}
+
+	private int writeEncodeBitGroup(List<FieldLayout> fields, int first) {
+		int last = getLastOfBitGroup(fields, first);
+		int groupBits = getGroupBits(fields, first, last);
+		boolean asLong = groupBits > 32;
+		out.begin("");
+		out.line((asLong ? "long" : "int") + " group = 0;");
+		for (int i = first; i <= last; ++i) {
+			FieldLayout field = fields.get(i);
+			String value = field.kind == TypeKind.BOOLEAN ? "(message." + field.name + " ? 1 : 0)" : "message." + field.name;
+			if (asLong && field.kind != TypeKind.LONG) {
+				value = "(long) " + value;
+			}
+			if (field.bits < (asLong ? 64 : 32) && field.kind != TypeKind.BOOLEAN) {
+				value = "(" + value + " & " + mask(field.bits, asLong) + ")";
+			}
+			out.line("group |= " + (field.bitShift == 0 ? value : value + " << " + field.bitShift) + ";");
+		}
+		writeBytes("group", "position", groupBits / 8, false);
+		out.line("position += " + groupBits / 8 + ";");
+		out.end();
+		return last;
+	}
+
+	private void writeEncodeArray(FieldLayout field) {
+		String array = "message." + field.name;
+		out.begin("");
+		if (field.arrayKind == FieldLayout.ArrayKind.FIXED) {
+			out.begin("if (" + array + " == null || " + array + ".length != " + field.length + ")");
+			out.line("throw new IllegalArgumentException(\"'" + field.name + "' must have " + field.length + " elements!\");");
+			out.end();
+			out.line("int count = " + field.length + ";");
+		} else {
+			out.line("int count = " + array + " == null ? 0 : " + array + ".length;");
+		}
+		if (field.kind == TypeKind.BYTE && field.size == 1) {
+			out.begin("if (count > 0)");
+			out.line("System.arraycopy(" + array + ", 0, target, position, count);");
+			out.end();
+			out.line("position += count;");
+		} else {
+			out.begin("for (int i = 0; i < count; ++i, position += " + field.size + ")");
+			writeValue(array + "[i]", field, "position");
+			out.end();
+		}
+		out.end();
+	}
+
+	/**
+	 * Write the value of the field, or of an element of the array field, at the given position.
+	 */
+	private void writeValue(String value, FieldLayout field, String position) {
+		if (field.kind == TypeKind.BOOLEAN) {
+			value = "(" + value + " ? 1 : 0)";
+		} else if (field.kind == TypeKind.FLOAT) {
+			value = "Float.floatToRawIntBits(" + value + ")";
+		} else if (field.kind == TypeKind.DOUBLE) {
+			value = "Double.doubleToRawLongBits(" + value + ")";
+		}
+		if (field.size == 1 || value.matches("[\\w.\\[\\]]+")) {
+			writeBytes(value, position, field.size, field.littleEndian);
+		} else {
+			out.begin("");
+			out.line((isLongType(field.kind) ? "long" : "int") + " value = " + value + ";");
+			writeBytes("value", position, field.size, field.littleEndian);
+			out.end();
+		}
+	}
+
+	private void writeBytes(String value, String position, int size, boolean littleEndian) {
+		for (int i = 0; i < size; ++i) {
+			int shift = 8 * (littleEndian ? i : size - 1 - i);
+			String index = i == 0 ? position : position + " + " + i;
+			out.line("target[" + index + "] = (byte) " + (shift == 0 ? value : "(" + value + " >> " + shift + ")") + ";");
+		}
+	}
+
+	/**
+	 * Returns the expression which reads an unsigned integer of the given size at the position.
+	 */
+	private static String readBytes(String position, int size, boolean littleEndian, boolean asLong) {
+		StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < size; ++i) {
+			int shift = 8 * (littleEndian ? i : size - 1 - i);
+			String index = i == 0 ? position : position + " + " + i;
+			String term = "(data[" + index + "] & 0xff)";
+			// A byte shifted into the sign bit of an int must be widened first
+			if (asLong && shift >= 24) {
+				term = "(long) " + term;
+			}
+			if (shift > 0) {
+				term = "(" + term + " << " + shift + ")";
+			}
+			if (expression.length() > 0) {
+				expression.append(" | ");
+			}
+			expression.append(term);
+		}
+		return size == 1 ? expression.toString() : "(" + expression + ")";
+	}
+
+	/**
+	 * Returns the expression which converts the unsigned integer of the given width to the type of the field.
+	 */
+	private static String convert(String value, FieldLayout field, int width, boolean asLong) {
+		int computeBits = asLong ? 64 : 32;
+		if (field.signed && width < computeBits) {
+			int shift = computeBits - width;
+			value = "(" + value + ") << " + shift + " >> " + shift;
+		}
+		switch (field.kind) {
+			case BYTE:
+				return "(byte) (" + value + ")";
+			case SHORT:
+				return "(short) (" + value + ")";
+			case CHAR:
+				return "(char) (" + value + ")";
+			case INT:
+				return asLong ? "(int) (" + value + ")" : value;
+			case FLOAT:
+				return "Float.intBitsToFloat(" + value + ")";
+			case DOUBLE:
+				return "Double.longBitsToDouble(" + value + ")";
+			case BOOLEAN:
+				return "(" + value + ") != 0";
+			default:
+				return value;
+		}
+	}
+
+	/**
+	 * Returns the expression of the element count held by the length field, which is unsigned unless declared signed.
+	 */
+	private static String countExpression(FieldLayout countField) {
+		String value = "message." + countField.name;
+		if (!countField.signed && countField.kind == TypeKind.BYTE) {
+			return value + " & 0xff";
+		} else if (!countField.signed && countField.kind == TypeKind.SHORT) {
+			return value + " & 0xffff";
+		} else if (countField.kind == TypeKind.LONG) {
+			return "(int) " + value;
+		}
+		return value;
+	}
+
+	private FieldLayout getField(String name) {
+		for (FieldLayout field : layout.fields) {
+			if (field.name.equals(name)) {
+				return field;
+			}
+		}
+		throw new IllegalArgumentException("No field '" + name + "'");
+	}
+
+	private static String mask(int bits, boolean asLong) {
+		long mask = (1L << bits) - 1;
+		return asLong ? "0x" + Long.toHexString(mask) + "L" : "0x" + Integer.toHexString((int) mask);
+	}
+
+	private static boolean isLongType(TypeKind kind) {
+		return kind == TypeKind.LONG || kind == TypeKind.DOUBLE;
+	}
+
+	private static int getLastOfBitGroup(List<FieldLayout> fields, int first) {
+		int last = first;
+		while (last + 1 < fields.size() && fields.get(last + 1).isBitField()) {
+			++last;
+		}
+		return last;
+	}
+
+	private static int getGroupBits(List<FieldLayout> fields, int first, int last) {
+		int bits = 0;
+		for (int i = first; i <= last; ++i) {
+			bits += fields.get(i).bits;
+		}
+		return bits;
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.compiler;
+
+import javax.lang.model.type.TypeKind;
+
+/**
+ * The layout of a payload field read from its annotation.
+ */
+class FieldLayout {
+
+	enum ArrayKind {
+		NONE,
+		FIXED,
+		COUNTED,
+		REST
+	}
+
+	final String name;
+	final int index;
+	/** The Java type of the field, or of an element of an array field */
+	final TypeKind kind;
+	final ArrayKind arrayKind;
+	/** The size in bytes of the field, or of an element of an array field. 0 for a bit field. */
+	final int size;
+	final int bits;
+	final boolean littleEndian;
+	final boolean signed;
+	final int length;
+	final String lengthField;
+
+	/** The name of the array field whose length this field holds, if any */
+	String countedArray;
+	/** The shift of this field in its bit group */
+	int bitShift;
+
+	FieldLayout(String name, int index, TypeKind kind, ArrayKind arrayKind, int size, int bits, boolean littleEndian, boolean signed, int length, String lengthField) {
+		this.name = name;
+		this.index = index;
+		this.kind = kind;
+		this.arrayKind = arrayKind;
+		this.size = size;
+		this.bits = bits;
+		this.littleEndian = littleEndian;
+		this.signed = signed;
+		this.length = length;
+		this.lengthField = lengthField;
+	}
+
+	boolean isArray() {
+		return arrayKind != ArrayKind.NONE;
+	}
+
+	boolean isBitField() {
+		return bits > 0;
+	}
+
+	/**
+	 * Returns the size of the Java type in bytes.
+	 */
+	static int naturalSize(TypeKind kind) {
+		switch (kind) {
+			case BOOLEAN:
+			case BYTE:
+				return 1;
+			case SHORT:
+			case CHAR:
+				return 2;
+			case INT:
+			case FLOAT:
+				return 4;
+			case LONG:
+			case DOUBLE:
+				return 8;
+			default:
+				return 0;
+		}
+	}
+
+	static String typeName(TypeKind kind) {
+		return kind.name().toLowerCase();
+	}
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.compiler;
+
+import javax.lang.model.element.TypeElement;
+
+/**
+ * A message class with its message ID.
+ */
+class MappedMessage {
+
+	final TypeElement element;
+	final int id;
+	final int idLength;
+	/** Whether the class has a no-arg constructor the generated mapper can refer to */
+	final boolean instantiable;
+
+	MappedMessage(TypeElement element, int id, int idLength, boolean instantiable) {
+		this.element = element;
+		this.id = id;
+		this.idLength = idLength;
+		this.instantiable = instantiable;
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the message class mapper of a package. It registers the message IDs in its constructor, and
+ * creates the messages by constructor references.
+ */
+class MapperWriter {
+
+	private static final String MAPPER_PACKAGE = "com.neofect.communicator.message.";
+
+	private final String packageName;
+	private final String mapperName;
+	private final List<MappedMessage> messages;
+	private final SourceBuilder out = new SourceBuilder();
+
+	MapperWriter(String packageName, String mapperName, List<MappedMessage> messages) {
+		this.packageName = packageName;
+		this.mapperName = mapperName;
+		this.messages = messages;
+	}
+
+	String write() {
+		List<String> instantiableClasses = new ArrayList<>();
+		for (MappedMessage message : messages) {
+			if (message.instantiable) {
+				instantiableClasses.add(message.element.getQualifiedName().toString());
+			}
+		}
+
+		out.line("// Generated by " + MessageCodecProcessor.class.getSimpleName() + ". Do not edit.");
+		if (!packageName.isEmpty()) {
+			out.line("package " + packageName + ";");
+			out.line();
+		}
+		out.line("/**");
+		out.line(" * Maps the message classes with {@code @MessageId} in this package.");
+		out.line(" */");
+		out.begin("public class " + mapperName + " extends " + MAPPER_PACKAGE + "IndexedMessageClassMapper");
+		out.line();
+		out.begin("public " + mapperName + "()");
+		out.line("super(" + messages.get(0).idLength + ");");
+		for (MappedMessage message : messages) {
+			out.line("register(0x" + Integer.toHexString(message.id) + ", " + message.element.getQualifiedName() + ".class);");
+		}
+		out.end();
+		out.line();
+
+		// Only the classes with a no-arg constructor can be decoded
+		out.line("@Override");
+		out.begin("public java.util.Collection<Class<? extends " + MAPPER_PACKAGE + "Message>> getMessageClasses()");
+		StringBuilder classList = new StringBuilder();
+		for (String className : instantiableClasses) {
+			classList.append(classList.length() == 0 ? "" : ", ").append(className).append(".class");
+		}
+		out.line("return java.util.Arrays.<Class<? extends " + MAPPER_PACKAGE + "Message>>asList(" + classList + ");");
+		out.end();
+		out.line();
+
+		out.line("@Override");
+		out.begin("public " + MAPPER_PACKAGE + "MessageFactory<? extends " + MAPPER_PACKAGE + "Message> getMessageFactory(Class<? extends " + MAPPER_PACKAGE + "Message> messageClass)");
+		for (String className : instantiableClasses) {
+			out.begin("if (messageClass == " + className + ".class)");
+			out.line("return " + className + "::new;");
+			out.end();
+		}
+		out.line("return null;");
+		out.end();
+		out.line();
+		out.end();
+		return out.toString();
+	}
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the codec of each class with {@code @PayloadField} fields, and the message class mapper of
+ * each package with {@code @MessageId} classes. The generated code uses neither reflection nor the
+ * annotations at runtime, so it needs no ProGuard rules.
+ * <p>
+ * The annotations are looked up by name, so this processor doesn't depend on the Android library.
+ */
+public class MessageCodecProcessor extends AbstractProcessor {
+
+	static final String MESSAGE_ID = "com.neofect.communicator.message.codec.MessageId";
+	static final String PAYLOAD_FIELD = "com.neofect.communicator.message.codec.PayloadField";
+	static final String MESSAGE = "com.neofect.communicator.message.Message";
+	static final String MAPPER_NAME = "GeneratedMessageClassMapper";
+
+	/** The packages whose mapper is generated already, since a file can be created only once */
+	private final Set<String> mappedPackages = new HashSet<>();
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		Set<String> types = new LinkedHashSet<>();
+		types.add(MESSAGE_ID);
+		types.add(PAYLOAD_FIELD);
+		return types;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement payloadFieldType = processingEnv.getElementUtils().getTypeElement(PAYLOAD_FIELD);
+		TypeElement messageIdType = processingEnv.getElementUtils().getTypeElement(MESSAGE_ID);
+
+		Set<TypeElement> codecClasses = new LinkedHashSet<>();
+		if (payloadFieldType != null) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(payloadFieldType)) {
+				codecClasses.add((TypeElement) element.getEnclosingElement());
+			}
+		}
+		Map<String, List<MappedMessage>> messagesByPackage = new LinkedHashMap<>();
+		if (messageIdType != null) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(messageIdType)) {
+				TypeElement messageClass = (TypeElement) element;
+				codecClasses.add(messageClass);
+				MappedMessage message = readMessageId(messageClass);
+				if (message != null) {
+					String packageName = getPackageName(messageClass);
+					List<MappedMessage> messages = messagesByPackage.get(packageName);
+					if (messages == null) {
+						messages = new ArrayList<>();
+						messagesByPackage.put(packageName, messages);
+					}
+					messages.add(message);
+				}
+			}
+		}
+
+		for (TypeElement codecClass : codecClasses) {
+			MessageLayout layout = readLayout(codecClass);
+			if (layout != null) {
+				writeSource(layout.packageName, layout.codecName, new CodecWriter(layout).write(), codecClass);
+			}
+		}
+		for (Map.Entry<String, List<MappedMessage>> entry : messagesByPackage.entrySet()) {
+			writeMapper(entry.getKey(), entry.getValue());
+		}
+		return true;
+	}
+
+	private MappedMessage readMessageId(TypeElement messageClass) {
+		if (!isAccessible(messageClass)) {
+			error(messageClass, "A message class with @MessageId must be accessible from its package.");
+			return null;
+		}
+		TypeMirror messageType = processingEnv.getElementUtils().getTypeElement(MESSAGE).asType();
+		if (!processingEnv.getTypeUtils().isAssignable(messageClass.asType(), messageType)) {
+			error(messageClass, "A class with @MessageId must implement " + MESSAGE + ".");
+			return null;
+		}
+		Map<String, Object> values = getAnnotationValues(messageClass, MESSAGE_ID);
+		int id = (Integer) values.get("value");
+		int idLength = (Integer) values.get("length");
+		if (idLength < 1 || idLength > 4) {
+			error(messageClass, "The length of a message ID must be 1 to 4.");
+			return null;
+		}
+		if (idLength < 4 && (id >>> (8 * idLength)) != 0) {
+			error(messageClass, "The message ID 0x" + Integer.toHexString(id) + " is longer than " + idLength + " bytes.");
+			return null;
+		}
+		return new MappedMessage(messageClass, id, idLength, hasNoArgConstructor(messageClass));
+	}
+
+	private MessageLayout readLayout(TypeElement codecClass) {
+		if (codecClass.getKind() != ElementKind.CLASS || !isAccessible(codecClass)) {
+			error(codecClass, "Payload fields must be in a class accessible from its package.");
+			return null;
+		}
+
+		List<FieldLayout> fields = new ArrayList<>();
+		boolean valid = true;
+		for (Element member : codecClass.getEnclosedElements()) {
+			if (member.getKind() != ElementKind.FIELD || getAnnotationMirror(member, PAYLOAD_FIELD) == null) {
+				continue;
+			}
+			FieldLayout field = readField((VariableElement) member);
+			if (field == null) {
+				valid = false;
+			} else {
+				fields.add(field);
+			}
+		}
+		if (!valid) {
+			return null;
+		}
+		Collections.sort(fields, (a, b) -> Integer.compare(a.index, b.index));
+		if (!validateLayout(codecClass, fields)) {
+			return null;
+		}
+
+		String className = codecClass.getQualifiedName().toString();
+		String packageName = getPackageName(codecClass);
+		String binaryName = packageName.isEmpty() ? className : className.substring(packageName.length() + 1);
+		return new MessageLayout(packageName, className, binaryName.replace('.', '_') + "Codec", fields);
+	}
+
+	private FieldLayout readField(VariableElement element) {
+		Set<Modifier> modifiers = element.getModifiers();
+		if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL) || modifiers.contains(Modifier.STATIC)) {
+			error(element, "A payload field must be neither private, final nor static.");
+			return null;
+		}
+
+		Map<String, Object> values = getAnnotationValues(element, PAYLOAD_FIELD);
+		int index = (Integer) values.get("index");
+		int size = (Integer) values.get("size");
+		int bits = (Integer) values.get("bits");
+		boolean littleEndian = "LITTLE_ENDIAN".equals(values.get("order"));
+		boolean signed = (Boolean) values.get("signed");
+		int length = (Integer) values.get("length");
+		String lengthField = (String) values.get("lengthField");
+
+		TypeMirror type = element.asType();
+		FieldLayout.ArrayKind arrayKind = FieldLayout.ArrayKind.NONE;
+		if (type.getKind() == TypeKind.ARRAY) {
+			type = ((ArrayType) type).getComponentType();
+			if (length > 0) {
+				arrayKind = FieldLayout.ArrayKind.FIXED;
+			} else if (!lengthField.isEmpty()) {
+				arrayKind = FieldLayout.ArrayKind.COUNTED;
+			} else {
+				arrayKind = FieldLayout.ArrayKind.REST;
+			}
+		}
+		TypeKind kind = type.getKind();
+		int naturalSize = FieldLayout.naturalSize(kind);
+		if (!kind.isPrimitive() || (arrayKind != FieldLayout.ArrayKind.NONE && kind == TypeKind.BOOLEAN)) {
+			error(element, "A payload field must be a primitive or an array of a primitive other than boolean.");
+			return null;
+		}
+		if (arrayKind == FieldLayout.ArrayKind.NONE && (length != 0 || !lengthField.isEmpty())) {
+			error(element, "length and lengthField are only for an array field.");
+			return null;
+		}
+		if (length < 0 || (length > 0 && !lengthField.isEmpty())) {
+			error(element, "Either a positive length or lengthField can be specified.");
+			return null;
+		}
+
+		if (bits > 0) {
+			if (arrayKind != FieldLayout.ArrayKind.NONE || kind == TypeKind.FLOAT || kind == TypeKind.DOUBLE) {
+				error(element, "A bit field must be an integral or boolean field.");
+				return null;
+			}
+			if (size != 0 || bits > naturalSize * 8 || (kind == TypeKind.BOOLEAN && bits != 1)) {
+				error(element, "Invalid bits of the field type! bits=" + bits);
+				return null;
+			}
+			size = 0;
+		} else {
+			if (bits < 0 || size < 0 || size > naturalSize) {
+				error(element, "Invalid size of the field type! size=" + size);
+				return null;
+			}
+			if (size == 0) {
+				size = naturalSize;
+			}
+			if ((kind == TypeKind.FLOAT || kind == TypeKind.DOUBLE || kind == TypeKind.BOOLEAN) && size != naturalSize) {
+				error(element, "The size of a " + FieldLayout.typeName(kind) + " field must be " + naturalSize + ".");
+				return null;
+			}
+		}
+		return new FieldLayout(element.getSimpleName().toString(), index, kind, arrayKind, size, bits, littleEndian, signed, length, lengthField);
+	}
+
+	private boolean validateLayout(TypeElement codecClass, List<FieldLayout> fields) {
+		Map<String, FieldLayout> preceding = new HashMap<>();
+		int groupBits = 0;
+		for (int i = 0; i < fields.size(); ++i) {
+			FieldLayout field = fields.get(i);
+			if (i > 0 && fields.get(i - 1).index == field.index) {
+				error(codecClass, "Duplicate payload field index " + field.index + ".");
+				return false;
+			}
+			if (field.arrayKind == FieldLayout.ArrayKind.COUNTED) {
+				FieldLayout countField = preceding.get(field.lengthField);
+				if (countField == null || countField.isArray() || countField.isBitField() || !isIntegral(countField.kind)) {
+					error(codecClass, "lengthField of '" + field.name + "' must be a preceding integral field which is not a bit field.");
+					return false;
+				}
+				if (countField.countedArray != null) {
+					error(codecClass, "'" + countField.name + "' is the length of more than one array.");
+					return false;
+				}
+				countField.countedArray = field.name;
+			}
+			if (field.arrayKind == FieldLayout.ArrayKind.REST && i != fields.size() - 1) {
+				error(codecClass, "The array field '" + field.name + "' without length must be the last field.");
+				return false;
+			}
+
+			if (field.isBitField()) {
+				groupBits += field.bits;
+				boolean groupEnds = i == fields.size() - 1 || !fields.get(i + 1).isBitField();
+				if (groupEnds) {
+					if (groupBits % 8 != 0 || groupBits > 64) {
+						error(codecClass, "The bit group ending with '" + field.name + "' must be a multiple of 8 bits up to 64 bits. bits=" + groupBits);
+						return false;
+					}
+					assignBitShifts(fields, i, groupBits);
+					groupBits = 0;
+				}
+			}
+			preceding.put(field.name, field);
+		}
+		return true;
+	}
+
+	private static void assignBitShifts(List<FieldLayout> fields, int lastIndex, int groupBits) {
+		int shift = groupBits;
+		int first = lastIndex;
+		while (first > 0 && fields.get(first - 1).isBitField()) {
+			--first;
+		}
+		for (int i = first; i <= lastIndex; ++i) {
+			shift -= fields.get(i).bits;
+			fields.get(i).bitShift = shift;
+		}
+	}
+
+	private static boolean isIntegral(TypeKind kind) {
+		return kind == TypeKind.BYTE || kind == TypeKind.SHORT || kind == TypeKind.CHAR || kind == TypeKind.INT || kind == TypeKind.LONG;
+	}
+
+	private void writeMapper(String packageName, List<MappedMessage> messages) {
+		if (!mappedPackages.add(packageName)) {
+			error(messages.get(0).element, "All the @MessageId classes of a package must be compiled together.");
+			return;
+		}
+		Map<Integer, MappedMessage> messagesById = new HashMap<>();
+		for (MappedMessage message : messages) {
+			if (message.idLength != messages.get(0).idLength) {
+				error(message.element, "All the message IDs in a package must have the same length.");
+				return;
+			}
+			MappedMessage duplicate = messagesById.put(message.id, message);
+			if (duplicate != null) {
+				error(message.element, "The message ID 0x" + Integer.toHexString(message.id) + " is also used by " + duplicate.element.getQualifiedName() + ".");
+				return;
+			}
+		}
+		Element[] originatingElements = new Element[messages.size()];
+		for (int i = 0; i < messages.size(); ++i) {
+			originatingElements[i] = messages.get(i).element;
+		}
+		writeSource(packageName, MAPPER_NAME, new MapperWriter(packageName, MAPPER_NAME, messages).write(), originatingElements);
+	}
+
+	private void writeSource(String packageName, String simpleName, String source, Element... originatingElements) {
+		String name = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(name, originatingElements);
+			try (Writer writer = file.openWriter()) {
+				writer.write(source);
+			}
+		} catch (IOException e) {
+			error(originatingElements[0], "Failed to write " + name + ": " + e.getMessage());
+		}
+	}
+
+	private String getPackageName(TypeElement element) {
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(element);
+		return packageElement.getQualifiedName().toString();
+	}
+
+	/**
+	 * Returns whether the class can be referred to by the generated classes in its package.
+	 */
+	private static boolean isAccessible(TypeElement element) {
+		for (Element current = element; current instanceof TypeElement; current = current.getEnclosingElement()) {
+			TypeElement type = (TypeElement) current;
+			if (type.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the class can be instantiated by a constructor reference in its package.
+	 */
+	private static boolean hasNoArgConstructor(TypeElement element) {
+		if (element.getModifiers().contains(Modifier.ABSTRACT)) {
+			return false;
+		}
+		if (element.getNestingKind() == NestingKind.MEMBER && !element.getModifiers().contains(Modifier.STATIC)) {
+			return false;
+		}
+		for (Element member : element.getEnclosedElements()) {
+			if (member.getKind() == ElementKind.CONSTRUCTOR && ((ExecutableElement) member).getParameters().isEmpty()) {
+				return !member.getModifiers().contains(Modifier.PRIVATE);
+			}
+		}
+		return false;
+	}
+
+	private static AnnotationMirror getAnnotationMirror(Element element, String annotationName) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			TypeElement annotationType = (TypeElement) mirror.getAnnotationType().asElement();
+			if (annotationType.getQualifiedName().contentEquals(annotationName)) {
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the values of the annotation including the defaults. The value of an enum constant is its name.
+	 */
+	private Map<String, Object> getAnnotationValues(Element element, String annotationName) {
+		AnnotationMirror mirror = getAnnotationMirror(element, annotationName);
+		Map<String, Object> values = new HashMap<>();
+		Map<? extends ExecutableElement, ? extends AnnotationValue> elementValues = processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elementValues.entrySet()) {
+			Object value = entry.getValue().getValue();
+			if (value instanceof VariableElement) {
+				value = ((VariableElement) value).getSimpleName().toString();
+			}
+			values.put(entry.getKey().getSimpleName().toString(), value);
+		}
+		return values;
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+}
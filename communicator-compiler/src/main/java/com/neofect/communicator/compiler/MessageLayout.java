@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.compiler;
+
+import java.util.List;
+
+/**
+ * The payload layout of a message class.
+ */
+class MessageLayout {
+
+	final String packageName;
+	/** The canonical name of the message class */
+	final String className;
+	/** The simple name of the codec class, e.g. Outer_InnerCodec for a nested class Outer.Inner */
+	final String codecName;
+	/** The fields in the order of the payload */
+	final List<FieldLayout> fields;
+
+	MessageLayout(String packageName, String className, String codecName, List<FieldLayout> fields) {
+		this.packageName = packageName;
+		this.className = className;
+		this.codecName = codecName;
+		this.fields = fields;
+	}
+
+	/**
+	 * Returns the size of the payload except the arrays whose length is not fixed.
+	 */
+	int getFixedSize() {
+		int fixedSize = 0;
+		int bits = 0;
+		for (FieldLayout field : fields) {
+			if (field.isBitField()) {
+				bits += field.bits;
+			} else if (field.arrayKind == FieldLayout.ArrayKind.FIXED) {
+				fixedSize += field.size * field.length;
+			} else if (!field.isArray()) {
+				fixedSize += field.size;
+			}
+		}
+		return fixedSize + bits / 8;
+	}
+
+	boolean hasVariableLength() {
+		for (FieldLayout field : fields) {
+			if (field.arrayKind == FieldLayout.ArrayKind.COUNTED || field.arrayKind == FieldLayout.ArrayKind.REST) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.compiler;
+
+/**
+ * Builds the text of a generated source file with tab indentation.
+ */
+class SourceBuilder {
+
+	private final StringBuilder builder = new StringBuilder();
+	private int indent = 0;
+
+	SourceBuilder line(String line) {
+		if (!line.isEmpty()) {
+			for (int i = 0; i < indent; ++i) {
+				builder.append('\t');
+			}
+			builder.append(line);
+		}
+		builder.append('\n');
+		return this;
+	}
+
+	SourceBuilder line() {
+		return line("");
+	}
+
+	/**
+	 * Append the line with an opening brace and indent the following lines.
+	 */
+	SourceBuilder begin(String line) {
+		line(line.isEmpty() ? "{" : line + " {");
+		++indent;
+		return this;
+	}
+
+	SourceBuilder end() {
+		--indent;
+		return line("}");
+	}
+
+	@Override
+	public String toString() {
+		return builder.toString();
+	}
+
+}
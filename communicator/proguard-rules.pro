@@ -8,3 +8,8 @@
 -keepclassmembers class * extends com.neofect.communicator.Device {
     public <init>(com.neofect.communicator.Connection);
 }
+
+# Keep the name of the buffer encoding method, which is looked up to know if it is overridden
+-keepclassmembers class * extends com.neofect.communicator.message.MessageEncoder {
+    public void encodeMessage(com.neofect.communicator.message.Message, java.nio.ByteBuffer);
+}
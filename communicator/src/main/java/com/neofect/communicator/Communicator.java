@@ -40,7 +40,20 @@ public class Communicator {
 		public void onFailedToConnect(Connection connection, Exception cause) {}
 		public void onDeviceConnected(T device, boolean alreadyExisting) {}
 		public void onDeviceDisconnected(T device) {}
+		/**
+		 * A {@link com.neofect.communicator.message.PooledMessage} is recycled after the last listener is called,
+		 * so retain it to keep it after this returns.
+		 */
 		public void onDeviceMessageProcessed(T device, Message message) {}
+		/**
+		 * Called with the messages processed in a batch when {@link Controller#setBatchProcessingEnabled(boolean)}
+		 * is enabled. By default, it calls {@link #onDeviceMessageProcessed(Device, Message)} for each message.
+		 */
+		public void onDeviceMessagesProcessed(T device, List<Message> messages) {
+			for (Message message : messages) {
+				onDeviceMessageProcessed(device, message);
+			}
+		}
 		public void onDeviceUpdated(T device) {}
 	}
 
@@ -319,6 +332,16 @@ public class Communicator {
 		refreshConnectedDeviceHandlers();
 	}
 
+	/**
+	 * Returns whether any listener gets the messages processed by the device.
+	 */
+	boolean hasListeners(Device device) {
+		synchronized (connectedDeviceHandlers) {
+			HandlerList handlerList = connectedDeviceHandlers.get(device.getClass());
+			return handlerList != null && !handlerList.isEmpty();
+		}
+	}
+
 	synchronized void notifyStartConnecting(Connection connection, Class<? extends Device> deviceClass) {
 		synchronized (connections) {
 			connections.add(connection);
@@ -383,6 +406,18 @@ public class Communicator {
 		}
 	}
 
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	synchronized void notifyDeviceMessagesProcessed(Device device, List<Message> messages) {
+		Class<? extends Device> deviceClass = device.getClass();
+		HandlerList handlerList = connectedDeviceHandlers.get(deviceClass);
+		if (handlerList == null) {
+			return;
+		}
+		for(CommunicatorHandler handler : handlerList) {
+			handler.onDeviceMessagesProcessed(device, messages);
+		}
+	}
+
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	synchronized void notifyDeviceUpdated(Device device) {
 		Class<? extends Device> deviceClass = device.getClass();
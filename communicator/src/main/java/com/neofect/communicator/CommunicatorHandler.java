@@ -20,6 +20,9 @@ import android.util.Log;
 
 import com.neofect.communicator.Communicator.Listener;
 import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessagePool;
+
+import java.util.List;
 
 /**
  * @author neo.kim@neofect.com
@@ -75,12 +78,35 @@ class CommunicatorHandler<T extends Device> extends Handler {
 		});
 	}
 	
+	/**
+	 * The message is retained until the listener is called, since the controller releases it after this returns.
+	 */
 	void onDeviceMessageProcessed(final T device, final Message message) {
+		MessagePool.retain(message);
 		post(() -> {
 			try {
 				listener.onDeviceMessageProcessed(device, message);
 			} catch(Exception e) {
 				Log.e(LOG_TAG, "", e);
+			} finally {
+				MessagePool.release(message);
+			}
+		});
+	}
+	
+	void onDeviceMessagesProcessed(final T device, final List<Message> messages) {
+		for (int i = 0; i < messages.size(); ++i) {
+			MessagePool.retain(messages.get(i));
+		}
+		post(() -> {
+			try {
+				listener.onDeviceMessagesProcessed(device, messages);
+			} catch(Exception e) {
+				Log.e(LOG_TAG, "", e);
+			} finally {
+				for (int i = 0; i < messages.size(); ++i) {
+					MessagePool.release(messages.get(i));
+				}
 			}
 		});
 	}
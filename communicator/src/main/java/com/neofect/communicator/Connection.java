@@ -18,8 +18,20 @@ package com.neofect.communicator;
 
 import android.util.Log;
 
+import com.neofect.communicator.message.CacheableMessage;
 import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.PreparedMessage;
+import com.neofect.communicator.pipeline.Pipeline;
 import com.neofect.communicator.util.ByteRingBuffer;
+import com.neofect.communicator.util.ByteRingBufferBudget;
+import com.neofect.communicator.util.SpscByteRingBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
 
 /**
  * @author neo.kim@neofect.com
@@ -29,6 +41,12 @@ public abstract class Connection {
 
     private static final String LOG_TAG = "Connection";
 
+    private static final int RING_BUFFER_DEFAULT_INIT_CAPACITY = 1024;
+    private static final int RING_BUFFER_DEFAULT_MAX_CAPACITY = 2 * 1024 * 1024; // Maximum 2MB
+    private static final int READ_SCRATCH_SIZE = 4096;
+
+    private static final Map<ConnectionType, int[]> ringBufferCapacities = new EnumMap<>(ConnectionType.class);
+
     public enum Status {
         NOT_CONNECTED,
         CONNECTING,
@@ -45,11 +63,112 @@ public abstract class Connection {
 
     private ConnectionType connectionType;
     private Status status = Status.NOT_CONNECTED;
-    private ByteRingBuffer ringBuffer = new ByteRingBuffer(2 * 1024 * 1024);
+    private ByteRingBuffer ringBuffer;
+    private final Object outboundLock = new Object();
+    /** Reused to encode the outbound messages */
+    private ByteBuffer outboundBuffer;
+    private final Pipeline pipeline = new Pipeline(this, new PipelineEndpoint());
+    /** Reused to move the data from a read queue through the inbound byte stages */
+    private byte[] readScratch;
+    /** Reused by the read thread to read from a stream */
+    private byte[] streamReadBuffer;
+    /** Null if the data is decoded on the read thread */
+    private final DecodeHandoff decodeHandoff;
+
+    /**
+     * Where the data leaves the pipeline of this connection.
+     */
+    private class PipelineEndpoint implements Pipeline.Endpoint {
+        @Override
+        public void onBytesRead(byte[] data, int offset, int length) {
+            ringBuffer.put(data, offset, length);
+        }
+
+        @Override
+        public void onMessageRead(Message message) {
+            controller.processPipelineMessage(Connection.this, message);
+        }
+
+        @Override
+        public void onMessageWrite(Message message) {
+            encodeAndWrite(message);
+        }
+
+        @Override
+        public void onBytesWrite(byte[] data, int offset, int length) {
+            write(data, offset, length);
+        }
+    }
 
     public Connection(ConnectionType connectionType, Controller<? extends Device> controller) {
         this.connectionType = connectionType;
         this.controller = controller;
+        this.ringBuffer = createRingBuffer(connectionType, controller);
+        if (controller != null && controller.getDecodeExecutor() != null) {
+            decodeHandoff = new DecodeHandoff(this, controller.getDecodeExecutor(), controller.getDecodeQueueCapacity());
+        } else {
+            decodeHandoff = null;
+        }
+        if (controller != null) {
+            controller.initPipeline(this, pipeline);
+        }
+    }
+
+    /**
+     * Sets the initial and maximum capacity of the ring buffer for the connections of given type
+     * which will be created. The ring buffer starts with the initial capacity and grows on demand up to
+     * the maximum. The ring buffer indexes by bit masking, so the initial capacity is rounded up to a power
+     * of two and the maximum is rounded down, e.g. 3MB to 2MB.
+     * {@link Controller#setRingBufferCapacity(int, int)} takes precedence over this.
+     *
+     * @param connectionType
+     * @param initialCapacity
+     * @param maxCapacity
+     */
+    public static void setDefaultRingBufferCapacity(ConnectionType connectionType, int initialCapacity, int maxCapacity) {
+        if (initialCapacity <= 0 || maxCapacity < initialCapacity) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity! initialCapacity=" + initialCapacity + ", maxCapacity=" + maxCapacity);
+        }
+        synchronized (ringBufferCapacities) {
+            ringBufferCapacities.put(connectionType, new int[] { initialCapacity, maxCapacity });
+        }
+    }
+
+    /**
+     * The ring buffer is put and consumed by the same thread, so {@link ByteRingBuffer.OverflowPolicy#BLOCK}
+     * would only wait for the timeout on every overflow.
+     */
+    private static class ConnectionRingBuffer extends ByteRingBuffer {
+        ConnectionRingBuffer(int initialCapacity, int maxCapacity) {
+            super(initialCapacity, maxCapacity, true);
+        }
+
+        @Override
+        public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                throw new IllegalArgumentException("The ring buffer of a connection can't block, since it is put and consumed by the same thread!");
+            }
+            super.setOverflowPolicy(overflowPolicy);
+        }
+    }
+
+    private static ByteRingBuffer createRingBuffer(ConnectionType connectionType, Controller<? extends Device> controller) {
+        ByteRingBuffer ringBuffer = null;
+        if (controller != null && controller.getRingBufferMaxCapacity() > 0) {
+            ringBuffer = new ConnectionRingBuffer(controller.getRingBufferInitialCapacity(), controller.getRingBufferMaxCapacity());
+        } else {
+            synchronized (ringBufferCapacities) {
+                int[] capacity = ringBufferCapacities.get(connectionType);
+                if (capacity != null) {
+                    ringBuffer = new ConnectionRingBuffer(capacity[0], capacity[1]);
+                }
+            }
+        }
+        if (ringBuffer == null) {
+            ringBuffer = new ConnectionRingBuffer(RING_BUFFER_DEFAULT_INIT_CAPACITY, RING_BUFFER_DEFAULT_MAX_CAPACITY);
+        }
+        ringBuffer.setBudget(ByteRingBufferBudget.getGlobal());
+        return ringBuffer;
     }
 
     public ConnectionType getConnectionType() {
@@ -72,29 +191,161 @@ public abstract class Connection {
         return controller;
     }
 
+    public Pipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Returns the handoff to the decode executor with its statistics, or null if the data is decoded
+     * on the read thread.
+     *
+     * @see Controller#setDecodeExecutor(java.util.concurrent.Executor, int)
+     */
+    public DecodeHandoff getDecodeHandoff() {
+        return decodeHandoff;
+    }
+
     public void write(byte[] data) {
         Log.e(LOG_TAG, "write: is not implemented for this connection type!");
     }
 
+    /**
+     * Write a part of the array. The caller may reuse the array after this returns, so this copies it
+     * by default. A connection which writes synchronously should override this to write without a copy.
+     * The encoded arrays which aren't reused, e.g. of {@link PreparedMessage} and of an encoder which
+     * doesn't encode into a buffer, are passed to {@link #write(byte[])} without a copy unless an
+     * {@link com.neofect.communicator.pipeline.OutboundByteStage} is in the pipeline.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public void write(byte[] data, int offset, int length) {
+        write(Arrays.copyOfRange(data, offset, offset + length));
+    }
+
+    /**
+     * Send the message through the outbound stages of the pipeline.
+     *
+     * @param message
+     */
     public void sendMessage(Message message) {
-        write(controller.encodeMessage(message));
+        pipeline.writeMessage(message);
+    }
+
+    private void encodeAndWrite(Message message) {
+        byte[] encodedMessage = null;
+        if (message instanceof PreparedMessage) {
+            encodedMessage = ((PreparedMessage) message).getEncodedMessage();
+        } else if (message instanceof CacheableMessage) {
+            encodedMessage = controller.encodeCacheableMessage((CacheableMessage) message);
+            if (encodedMessage == null) {
+                return;
+            }
+        } else if (!controller.isEncodingIntoBuffer()) {
+            encodedMessage = controller.encodeMessageToArray(message);
+            if (encodedMessage == null) {
+                return;
+            }
+        }
+        if (encodedMessage != null) {
+            // The array isn't reused, so it is written without a copy if no stage is between
+            if (pipeline.hasOutboundByteStages()) {
+                pipeline.writeBytes(encodedMessage, 0, encodedMessage.length);
+            } else {
+                write(encodedMessage);
+            }
+            return;
+        }
+
+        synchronized (outboundLock) {
+            ByteBuffer buffer = controller.encodeMessage(message, outboundBuffer);
+            if (buffer == null) {
+                return;
+            }
+            outboundBuffer = buffer;
+            pipeline.writeBytes(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        }
     }
 
     protected final void handleReadData(byte[] data) {
-        ringBuffer.put(data);
+        handleReadData(data, data.length);
+    }
+
+    /**
+     * The ring buffer is written under the same lock as the decoding, since a decode on another thread,
+     * e.g. by {@link #replaceController(Controller)}, may reallocate it.
+     */
+    protected final void handleReadData(byte[] data, int size) {
+        if (decodeHandoff != null) {
+            decodeHandoff.offer(data, 0, size);
+            return;
+        }
 
         // Process message
         synchronized (this) {
+            pipeline.readBytes(data, 0, size);
+            // Decode even if the data is rejected, so that a full buffer is drained or resynchronized
             controller.decodeRawMessageAndProcess(this);
         }
     }
 
-    protected final void handleReadData(byte[] data, int size) {
-        ringBuffer.put(data, size);
+    /**
+     * Read data from the given stream and process it. This blocks until any data is available. The data
+     * is read into an array reused by the calling thread without holding the lock, and put into the ring
+     * buffer with the decoding. With a decode executor, the data is queued for it instead.
+     *
+     * @return The size of the data read, or -1 if the end of the stream has been reached.
+     * @throws IOException
+     */
+    protected final int handleReadData(InputStream inputStream) throws IOException {
+        if (decodeHandoff != null) {
+            return decodeHandoff.offerFrom(inputStream);
+        }
+        if (streamReadBuffer == null) {
+            streamReadBuffer = new byte[READ_SCRATCH_SIZE];
+        }
+        int size = inputStream.read(streamReadBuffer, 0, streamReadBuffer.length);
+        if (size < 0) {
+            return size;
+        }
+        handleReadData(streamReadBuffer, size);
+        return size;
+    }
 
-        // Process message
+    /**
+     * Move the data published by an I/O thread into the ring buffer and process it. This is for the
+     * connections which read and decode on different threads, and must be called by the consumer thread
+     * of the given buffer. It is always processed on the calling thread regardless of the decode executor.
+     * When the queue has dropped data, the ring buffer is marked discontinuous right after the data before
+     * the gap, so the decoder resynchronizes exactly there.
+     *
+     * @return The size of the data moved. Nothing is processed if it is 0.
+     */
+    protected final int handleReadData(SpscByteRingBuffer readQueue) {
         synchronized (this) {
-            controller.decodeRawMessageAndProcess(this);
+            int size;
+            if (pipeline.hasInboundByteStages()) {
+                if (readScratch == null) {
+                    readScratch = new byte[READ_SCRATCH_SIZE];
+                }
+                size = 0;
+                int polledSize;
+                while ((polledSize = readQueue.poll(readScratch, 0, readScratch.length)) > 0) {
+                    pipeline.readBytes(readScratch, 0, polledSize);
+                    size += polledSize;
+                }
+            } else {
+                size = readQueue.drainTo(ringBuffer);
+            }
+            if (size > 0) {
+                // Process message
+                controller.decodeRawMessageAndProcess(this);
+            }
+            if (readQueue.acknowledgeGap()) {
+                ringBuffer.markDiscontinuity();
+            }
+            return size;
         }
     }
 
@@ -148,6 +399,13 @@ public abstract class Connection {
         Communicator.getInstance().notifyDisconnected(this, controller.getDeviceClass());
     }
 
+    /**
+     * Replace the controller which decodes and processes the data. The ring buffer and the decode
+     * handoff of this connection are kept, so the ring buffer capacity and the decode executor of
+     * the new controller don't apply.
+     *
+     * @param newController
+     */
     public void replaceController(Controller<? extends Device> newController) {
         synchronized (this) {
             Controller<? extends Device> oldController = this.controller;
@@ -18,16 +18,31 @@ package com.neofect.communicator;
 
 import android.util.Log;
 
+import com.neofect.communicator.message.CacheableMessage;
+import com.neofect.communicator.message.EncodedMessageCache;
 import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageClassFilter;
 import com.neofect.communicator.message.MessageDecoder;
 import com.neofect.communicator.message.MessageEncoder;
+import com.neofect.communicator.message.MessagePool;
+import com.neofect.communicator.message.MessageSink;
+import com.neofect.communicator.message.PreparedMessage;
+import com.neofect.communicator.pipeline.Pipeline;
 import com.neofect.communicator.util.ByteArrayConverter;
 import com.neofect.communicator.util.ByteRingBuffer;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * @author neo.kim@neofect.com
@@ -36,16 +51,124 @@ import java.util.List;
 public abstract class Controller<T extends Device> {
 
     private static final String LOG_TAG = "Controller";
+    private static final int DEFAULT_ENCODED_MESSAGE_CACHE_SIZE = 32;
 
     public interface InboundMessageCallback {
         /**
          * Any process after this process will be skipped when it returns true.
+         * A {@link com.neofect.communicator.message.PooledMessage} is released after all the processes,
+         * so retain it to keep it after this returns.
          *
          * @param connection
          * @param message
          * @return
          */
         boolean process(Connection connection, Message message);
+
+        /**
+         * Called instead of {@link #process(Connection, Message)} when batch processing is enabled.
+         * The processes after this are skipped for the messages removed from the list. By default,
+         * it calls {@link #process(Connection, Message)} for each message and removes the message
+         * if it returns true.
+         *
+         * @param connection
+         * @param messages
+         */
+        default void processAll(Connection connection, List<Message> messages) {
+            Iterator<Message> iterator = messages.iterator();
+            while (iterator.hasNext()) {
+                if (process(connection, iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * A callback which is called only for the messages of the subscribed class, its subclasses or
+     * its implementations, so it doesn't need to check the type of the message.
+     *
+     * @see #addCallback(Class, TypedCallback)
+     */
+    public interface TypedCallback<M extends Message> {
+        /**
+         * Any process after this process will be skipped when it returns true.
+         *
+         * @param connection
+         * @param message
+         * @return
+         */
+        boolean process(Connection connection, M message);
+    }
+
+    /**
+     * The typed callbacks in the order of subscription and the callbacks matched for each concrete
+     * message class, which are computed on the first message of the class. A change replaces the whole.
+     */
+    private static class TypedCallbacks {
+        private static final TypedCallback<?>[] NO_MATCH = new TypedCallback<?>[0];
+
+        private final Class<?>[] messageClasses;
+        private final TypedCallback<?>[] callbacks;
+        private final Map<Class<?>, TypedCallback<?>[]> dispatchTable = new ConcurrentHashMap<>();
+
+        TypedCallbacks(Class<?>[] messageClasses, TypedCallback<?>[] callbacks) {
+            this.messageClasses = messageClasses;
+            this.callbacks = callbacks;
+        }
+
+        TypedCallback<?>[] getMatchedCallbacks(Class<?> messageClass) {
+            TypedCallback<?>[] matched = dispatchTable.get(messageClass);
+            if (matched != null) {
+                return matched;
+            }
+            int count = 0;
+            for (Class<?> subscribedClass : messageClasses) {
+                if (subscribedClass.isAssignableFrom(messageClass)) {
+                    ++count;
+                }
+            }
+            matched = count == 0 ? NO_MATCH : new TypedCallback<?>[count];
+            for (int i = 0, j = 0; j < count; ++i) {
+                if (messageClasses[i].isAssignableFrom(messageClass)) {
+                    matched[j++] = callbacks[i];
+                }
+            }
+            dispatchTable.put(messageClass, matched);
+            return matched;
+        }
+
+        TypedCallbacks add(Class<?> messageClass, TypedCallback<?> callback) {
+            Class<?>[] newMessageClasses = Arrays.copyOf(messageClasses, messageClasses.length + 1);
+            TypedCallback<?>[] newCallbacks = Arrays.copyOf(callbacks, callbacks.length + 1);
+            newMessageClasses[messageClasses.length] = messageClass;
+            newCallbacks[callbacks.length] = callback;
+            return new TypedCallbacks(newMessageClasses, newCallbacks);
+        }
+
+        /**
+         * @return The callbacks without all the subscriptions of the given callback, or this if not found.
+         */
+        TypedCallbacks remove(TypedCallback<?> callback) {
+            int count = 0;
+            for (TypedCallback<?> subscribed : callbacks) {
+                if (subscribed != callback) {
+                    ++count;
+                }
+            }
+            if (count == callbacks.length) {
+                return this;
+            }
+            Class<?>[] newMessageClasses = new Class<?>[count];
+            TypedCallback<?>[] newCallbacks = new TypedCallback<?>[count];
+            for (int i = 0, j = 0; i < callbacks.length; ++i) {
+                if (callbacks[i] != callback) {
+                    newMessageClasses[j] = messageClasses[i];
+                    newCallbacks[j++] = callbacks[i];
+                }
+            }
+            return new TypedCallbacks(newMessageClasses, newCallbacks);
+        }
     }
 
     private Class<T> deviceClass;
@@ -54,8 +177,32 @@ public abstract class Controller<T extends Device> {
     private MessageEncoder encoder;
     private MessageDecoder decoder;
 
-    private List<InboundMessageCallback> beforeCallbacks = new ArrayList<>();
-    private List<InboundMessageCallback> afterCallbacks = new ArrayList<>();
+    private static final InboundMessageCallback[] NO_CALLBACKS = new InboundMessageCallback[0];
+
+    /**
+     * The callbacks are immutable snapshots replaced on every change, so the read thread iterates them
+     * without locking while the other threads add or remove callbacks.
+     */
+    private final Object callbackLock = new Object();
+    private volatile InboundMessageCallback[] beforeCallbacks = NO_CALLBACKS;
+    private volatile InboundMessageCallback[] afterCallbacks = NO_CALLBACKS;
+    private volatile TypedCallbacks typedCallbacks = new TypedCallbacks(new Class<?>[0], new TypedCallback<?>[0]);
+    private boolean skippingUnsubscribedMessages = false;
+    private final MessageClassFilter subscriptionFilter = this::hasSubscribers;
+
+    private int ringBufferInitialCapacity = 0;
+    private int ringBufferMaxCapacity = 0;
+    private Executor decodeExecutor;
+    private int decodeQueueCapacity = 0;
+    private EncodedMessageCache encodedMessageCache = new EncodedMessageCache(DEFAULT_ENCODED_MESSAGE_CACHE_SIZE);
+
+    private boolean batchProcessingEnabled = false;
+    private final List<Message> batch = new ArrayList<>();
+    private final MessageSink batchSink = this::addToBatch;
+    /** The decoded messages to release after the batch, since the stages and callbacks drop messages from the batch */
+    private final List<Message> decodedBatch = new ArrayList<>();
+    /** The connection whose batch is being decoded */
+    private Connection batchConnection;
 
     private boolean halted = false;
 
@@ -75,28 +222,236 @@ public abstract class Controller<T extends Device> {
 
     protected void onReplaced(Connection connection) {}
 
+    /**
+     * Called once when a connection with this controller is created, to add the stages to its pipeline.
+     * The stages see the data of the connection whichever controller replaces this.
+     *
+     * @param connection
+     * @param pipeline
+     */
+    protected void initPipeline(Connection connection, Pipeline pipeline) {}
+
     public void addCallbackBeforeProcessInboundMessage(InboundMessageCallback callback) {
-        beforeCallbacks.add(callback);
+        synchronized (callbackLock) {
+            beforeCallbacks = insertCallback(beforeCallbacks, beforeCallbacks.length, callback);
+        }
     }
 
     public void addCallbackBeforeProcessInboundMessageAtFront(InboundMessageCallback callback) {
-        beforeCallbacks.add(0, callback);
+        synchronized (callbackLock) {
+            beforeCallbacks = insertCallback(beforeCallbacks, 0, callback);
+        }
     }
 
     public boolean removeCallbackBeforeProcessInboundMessage(InboundMessageCallback callback) {
-        return beforeCallbacks.remove(callback);
+        synchronized (callbackLock) {
+            InboundMessageCallback[] callbacks = removeCallback(beforeCallbacks, callback);
+            if (callbacks == beforeCallbacks) {
+                return false;
+            }
+            beforeCallbacks = callbacks;
+            return true;
+        }
     }
 
     public void addCallbackAfterProcessInboundMessage(InboundMessageCallback callback) {
-        afterCallbacks.add(callback);
+        synchronized (callbackLock) {
+            afterCallbacks = insertCallback(afterCallbacks, afterCallbacks.length, callback);
+        }
     }
 
     public void addCallbackAfterProcessInboundMessageAtFront(InboundMessageCallback callback) {
-        afterCallbacks.add(0, callback);
+        synchronized (callbackLock) {
+            afterCallbacks = insertCallback(afterCallbacks, 0, callback);
+        }
     }
 
     public boolean removeCallbackAfterProcessInboundMessage(InboundMessageCallback callback) {
-        return afterCallbacks.remove(callback);
+        synchronized (callbackLock) {
+            InboundMessageCallback[] callbacks = removeCallback(afterCallbacks, callback);
+            if (callbacks == afterCallbacks) {
+                return false;
+            }
+            afterCallbacks = callbacks;
+            return true;
+        }
+    }
+
+    /**
+     * Subscribe to the messages of the given class, including its subclasses and implementations. The typed
+     * callbacks are called after the device processes the message and before the callbacks added by
+     * {@link #addCallbackAfterProcessInboundMessage(InboundMessageCallback)}, in the order of subscription.
+     *
+     * @param messageClass
+     * @param callback
+     */
+    public <M extends Message> void addCallback(Class<M> messageClass, TypedCallback<? super M> callback) {
+        if (messageClass == null || callback == null) {
+            throw new IllegalArgumentException("Message class and callback must not be null!");
+        }
+        synchronized (callbackLock) {
+            typedCallbacks = typedCallbacks.add(messageClass, callback);
+        }
+    }
+
+    /**
+     * Remove all the subscriptions of the given callback.
+     *
+     * @param callback
+     * @return True if any subscription is removed.
+     */
+    public boolean removeCallback(TypedCallback<?> callback) {
+        synchronized (callbackLock) {
+            TypedCallbacks callbacks = typedCallbacks.remove(callback);
+            if (callbacks == typedCallbacks) {
+                return false;
+            }
+            typedCallbacks = callbacks;
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether anything gets the messages of the given class, i.e. a typed callback subscribes to it,
+     * any callback for all the messages is added, or the device is connected and it subscribes to it by
+     * {@link Device#isSubscribing(Class)}, a {@link Communicator.Listener} of the device is registered or
+     * an {@link com.neofect.communicator.pipeline.InboundMessageStage} is in the pipeline.
+     *
+     * @param messageClass
+     */
+    public boolean hasSubscribers(Class<? extends Message> messageClass) {
+        if (beforeCallbacks.length > 0 || afterCallbacks.length > 0
+                || typedCallbacks.getMatchedCallbacks(messageClass).length > 0) {
+            return true;
+        }
+        T device = this.device;
+        if (device == null) {
+            return false;
+        }
+        return device.isSubscribing(messageClass)
+                || device.getConnection().getPipeline().hasInboundMessageStages()
+                || Communicator.getInstance().hasListeners(device);
+    }
+
+    /**
+     * If enabled, the decoder drops the messages which nothing subscribes to without decoding their
+     * payload. See {@link #hasSubscribers(Class)} and {@link MessageDecoder#setMessageClassFilter(MessageClassFilter)}.
+     *
+     * @param skippingUnsubscribedMessages
+     */
+    public void setSkippingUnsubscribedMessages(boolean skippingUnsubscribedMessages) {
+        this.skippingUnsubscribedMessages = skippingUnsubscribedMessages;
+        if (decoder != null) {
+            decoder.setMessageClassFilter(skippingUnsubscribedMessages ? subscriptionFilter : null);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private boolean dispatchTypedCallbacks(Connection connection, Message message) {
+        for (TypedCallback callback : typedCallbacks.getMatchedCallbacks(message.getClass())) {
+            if (callback.process(connection, message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static InboundMessageCallback[] insertCallback(InboundMessageCallback[] callbacks, int index, InboundMessageCallback callback) {
+        InboundMessageCallback[] newCallbacks = new InboundMessageCallback[callbacks.length + 1];
+        System.arraycopy(callbacks, 0, newCallbacks, 0, index);
+        newCallbacks[index] = callback;
+        System.arraycopy(callbacks, index, newCallbacks, index + 1, callbacks.length - index);
+        return newCallbacks;
+    }
+
+    /**
+     * @return The array without the first occurrence of the callback, or the given array if not found.
+     */
+    private static InboundMessageCallback[] removeCallback(InboundMessageCallback[] callbacks, InboundMessageCallback callback) {
+        for (int i = 0; i < callbacks.length; ++i) {
+            if (callback == null ? callbacks[i] == null : callback.equals(callbacks[i])) {
+                if (callbacks.length == 1) {
+                    return NO_CALLBACKS;
+                }
+                InboundMessageCallback[] newCallbacks = new InboundMessageCallback[callbacks.length - 1];
+                System.arraycopy(callbacks, 0, newCallbacks, 0, i);
+                System.arraycopy(callbacks, i + 1, newCallbacks, i, callbacks.length - i - 1);
+                return newCallbacks;
+            }
+        }
+        return callbacks;
+    }
+
+    /**
+     * Sets the initial and maximum capacity of the ring buffer for the connections which will be
+     * created with this controller. The initial capacity is rounded up to a power of two and the maximum
+     * is rounded down. It takes precedence over the default capacity of each connection type.
+     *
+     * @param initialCapacity
+     * @param maxCapacity
+     * @see Connection#setDefaultRingBufferCapacity(ConnectionType, int, int)
+     */
+    public void setRingBufferCapacity(int initialCapacity, int maxCapacity) {
+        if (initialCapacity <= 0 || maxCapacity < initialCapacity) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity! initialCapacity=" + initialCapacity + ", maxCapacity=" + maxCapacity);
+        }
+        this.ringBufferInitialCapacity = initialCapacity;
+        this.ringBufferMaxCapacity = maxCapacity;
+    }
+
+    int getRingBufferInitialCapacity() {
+        return ringBufferInitialCapacity;
+    }
+
+    int getRingBufferMaxCapacity() {
+        return ringBufferMaxCapacity;
+    }
+
+    /**
+     * Decode the data of the connections which will be created with this controller on the given executor
+     * instead of their read threads. The read thread queues the data up to the given capacity, which is
+     * rounded up to a power of two, and the data over it is dropped. The data of a connection is decoded
+     * in order by one task at a time, so the executor may be shared by many connections.
+     * The messages are processed on the executor, so the device and the callbacks run there too.
+     * <p>
+     * It takes effect only for the connections created with this controller afterward. A connection whose
+     * controller is replaced by {@link Connection#replaceController(Controller)} keeps decoding as it was
+     * created, since swapping the queue while the read thread offers to it could reorder the data.
+     *
+     * @param executor Null to decode on the read threads, which is the default.
+     * @param queueCapacity
+     * @see Connection#getDecodeHandoff()
+     */
+    public void setDecodeExecutor(Executor executor, int queueCapacity) {
+        if (executor != null && queueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid decode queue capacity! queueCapacity=" + queueCapacity);
+        }
+        this.decodeExecutor = executor;
+        this.decodeQueueCapacity = queueCapacity;
+    }
+
+    Executor getDecodeExecutor() {
+        return decodeExecutor;
+    }
+
+    int getDecodeQueueCapacity() {
+        return decodeQueueCapacity;
+    }
+
+    public boolean isBatchProcessingEnabled() {
+        return batchProcessingEnabled;
+    }
+
+    /**
+     * If enabled, every complete message in the received data is decoded by
+     * {@link MessageDecoder#decodeMessages} in one pass, and then the messages are processed as a batch.
+     * The callbacks get them through {@link InboundMessageCallback#processAll(Connection, List)} and
+     * the listeners through {@link Communicator.Listener#onDeviceMessagesProcessed} with one post.
+     *
+     * @param batchProcessingEnabled
+     */
+    public void setBatchProcessingEnabled(boolean batchProcessingEnabled) {
+        this.batchProcessingEnabled = batchProcessingEnabled;
     }
 
     public MessageEncoder getMessageEncoder() {
@@ -105,6 +460,32 @@ public abstract class Controller<T extends Device> {
 
     public void setMessageEncoder(MessageEncoder encoder) {
         this.encoder = encoder;
+        EncodedMessageCache cache = encodedMessageCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Sets how many encoded {@link CacheableMessage}s are kept. 0 disables the cache.
+     *
+     * @param maxEntries
+     */
+    public void setEncodedMessageCacheSize(int maxEntries) {
+        encodedMessageCache = maxEntries > 0 ? new EncodedMessageCache(maxEntries) : null;
+    }
+
+    /**
+     * Encode the message in advance by the encoder of this controller.
+     *
+     * @param message
+     * @return
+     */
+    public PreparedMessage prepareMessage(Message message) {
+        if (encoder == null) {
+            throw new IllegalStateException("Message encoder is not set!");
+        }
+        return PreparedMessage.prepare(encoder, message);
     }
 
     public MessageDecoder getMessageDecoder() {
@@ -113,6 +494,9 @@ public abstract class Controller<T extends Device> {
 
     public void setMessageDecoder(MessageDecoder decoder) {
         this.decoder = decoder;
+        if (decoder != null && skippingUnsubscribedMessages) {
+            decoder.setMessageClassFilter(subscriptionFilter);
+        }
     }
 
     protected void handleExceptionWhenDecodingMessage(Exception exception, Connection connection) {
@@ -123,10 +507,23 @@ public abstract class Controller<T extends Device> {
         Log.e(LOG_TAG, "Failed to process message! '" + message.getDescription() + "'", exception);
     }
 
+    protected void handleExceptionWhenProcessingInboundMessages(Exception exception, Connection connection, List<Message> messages) {
+        Log.e(LOG_TAG, "Failed to process messages! count=" + messages.size(), exception);
+    }
+
+    /** The constructors of the device classes, looked up once per class rather than on every connection */
+    private static final Map<Class<?>, Constructor<?>> deviceConstructors = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
     private static <T extends Device> T createDeviceInstance(Connection connection, Class<T> deviceClass) {
         // Create an instance of the device.
         try {
-            return deviceClass.getDeclaredConstructor(Connection.class).newInstance(connection);
+            Constructor<T> constructor = (Constructor<T>) deviceConstructors.get(deviceClass);
+            if (constructor == null) {
+                constructor = deviceClass.getDeclaredConstructor(Connection.class);
+                deviceConstructors.put(deviceClass, constructor);
+            }
+            return constructor.newInstance(connection);
         } catch (Exception e) {
             throw new RuntimeException("Failed to instantiate an instance of device class!", e);
         }
@@ -160,7 +557,12 @@ public abstract class Controller<T extends Device> {
         return deviceClass;
     }
 
-    final byte[] encodeMessage(Message message) {
+    /**
+     * Encode the message into the given buffer, or into a larger one if it doesn't fit.
+     *
+     * @return The buffer which has the encoded message between 0 and its limit, or null if failed.
+     */
+    final ByteBuffer encodeMessage(Message message, ByteBuffer buffer) {
         if (encoder == null) {
             Log.e(LOG_TAG, "Message encoder is not set!");
             return null;
@@ -169,6 +571,36 @@ public abstract class Controller<T extends Device> {
             return null;
         }
 
+        try {
+            return encoder.encode(message, buffer);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to encode a message! " + message.getDescription(), e);
+        }
+    }
+
+    final boolean isEncodingIntoBuffer() {
+        MessageEncoder encoder = this.encoder;
+        return encoder != null && encoder.isEncodingIntoBuffer();
+    }
+
+    /**
+     * Encode the message into a new array. An encoder which doesn't encode into a buffer returns its
+     * array without a copy.
+     *
+     * @return The encoded array, or null if failed.
+     */
+    final byte[] encodeMessageToArray(Message message) {
+        if (isEncodingIntoBuffer()) {
+            ByteBuffer buffer = encodeMessage(message, null);
+            return buffer == null ? null : Arrays.copyOf(buffer.array(), buffer.limit());
+        } else if (encoder == null) {
+            Log.e(LOG_TAG, "Message encoder is not set!");
+            return null;
+        } else if (message == null) {
+            Log.e(LOG_TAG, "Given message instance is null!");
+            return null;
+        }
+
         try {
             return encoder.encodeMessage(message);
         } catch (Exception e) {
@@ -176,6 +608,26 @@ public abstract class Controller<T extends Device> {
         }
     }
 
+    /**
+     * Returns the encoded bytes of the message from the cache, or encodes and caches them.
+     *
+     * @return The encoded bytes which must not be modified, or null if failed.
+     */
+    final byte[] encodeCacheableMessage(CacheableMessage message) {
+        EncodedMessageCache cache = encodedMessageCache;
+        byte[] encodedMessage = cache == null ? null : cache.get(message);
+        if (encodedMessage == null) {
+            encodedMessage = encodeMessageToArray(message);
+            if (encodedMessage == null) {
+                return null;
+            }
+            if (cache != null) {
+                cache.put(message, encodedMessage);
+            }
+        }
+        return encodedMessage;
+    }
+
     /**
      * This is only called by {@link Connection#handleReadData(byte[])}.
      *
@@ -187,27 +639,111 @@ public abstract class Controller<T extends Device> {
             return;
         }
 
+        ByteRingBuffer ringBuffer = connection.getRingBuffer();
+        if (ringBuffer.hasDiscontinuity()) {
+            Log.w(LOG_TAG, "decodeRawMessageAndProcess: Data was lost by overflow. overwritten=" + ringBuffer.getOverwrittenByteCount()
+                    + ", rejected=" + ringBuffer.getRejectedByteCount() + ", connection=" + connection.getDescription());
+            ringBuffer.clearDiscontinuity();
+            decoder.onDiscontinuity(ringBuffer);
+        }
+
+        if (batchProcessingEnabled) {
+            decodeRawMessagesAndProcessBatch(connection, ringBuffer);
+            return;
+        }
+
         while (!halted) {
             Message message = null;
             try {
-                message = decoder.decodeMessage(connection.getRingBuffer());
+                message = decoder.decodeMessage(ringBuffer);
             } catch (Exception e) {
+                // Keep the failed data consumed so that it isn't decoded again
+                if (ringBuffer.isMarked()) {
+                    ringBuffer.commit();
+                }
                 printBuffer(connection);
                 handleExceptionWhenDecodingMessage(e, connection);
             }
+            if (ringBuffer.isMarked()) {
+                if (message != null) {
+                    ringBuffer.commit();
+                } else {
+                    ringBuffer.reset();
+                }
+            }
             if (message == null) {
                 break;
             }
+            try {
+                connection.getPipeline().readMessage(message);
+            } finally {
+                MessagePool.release(message);
+            }
+        }
+    }
+
+    private void decodeRawMessagesAndProcessBatch(Connection connection, ByteRingBuffer ringBuffer) {
+        if (halted) {
+            return;
+        }
+        batch.clear();
+        batchConnection = connection;
+        try {
+            decoder.decodeMessages(ringBuffer, batchSink);
+        } catch (Exception e) {
+            // Keep the failed data consumed so that it isn't decoded again
+            if (ringBuffer.isMarked()) {
+                ringBuffer.commit();
+            }
+            printBuffer(connection);
+            handleExceptionWhenDecodingMessage(e, connection);
+        }
+        if (ringBuffer.isMarked()) {
+            ringBuffer.reset();
+        }
+        batchConnection = null;
+        try {
+            if (!batch.isEmpty() && !halted) {
+                processInboundMessages(connection, batch);
+            }
+        } finally {
+            for (int i = 0; i < decodedBatch.size(); ++i) {
+                MessagePool.release(decodedBatch.get(i));
+            }
+            decodedBatch.clear();
+            batch.clear();
+        }
+    }
+
+    private void addToBatch(Message message) {
+        decodedBatch.add(message);
+        batchConnection.getPipeline().readMessage(message);
+    }
+
+    /**
+     * Called with the messages passed through the inbound message stages of the connection's pipeline.
+     * They are gathered into the batch while a batch is being decoded, and processed immediately otherwise.
+     */
+    final void processPipelineMessage(Connection connection, Message message) {
+        if (batchConnection == connection) {
+            batch.add(message);
+        } else {
             processInboundMessage(connection, message);
         }
     }
 
+    /**
+     * Log the head of the buffer only if the debug log is enabled, since it allocates for every failure.
+     */
     private static void printBuffer(Connection connection) {
+        if (!Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            return;
+        }
         try {
             ByteRingBuffer buffer = connection.getRingBuffer();
             int length = Math.min(50, buffer.getContentSize());
             byte[] byteArrays = buffer.readWithoutConsume(length);
-            ByteArrayConverter.byteArrayToHex(byteArrays);
+            Log.d(LOG_TAG, "printBuffer: " + ByteArrayConverter.byteArrayToHex(byteArrays));
         } catch (Exception e) {
             Log.e(LOG_TAG, "printBuffer: ", e);
         }
@@ -229,6 +765,10 @@ public abstract class Controller<T extends Device> {
                 }
             }
 
+            if (dispatchTypedCallbacks(connection, message)) {
+                return;
+            }
+
             for (InboundMessageCallback callback : afterCallbacks) {
                 if (callback.process(connection, message)) {
                     return;
@@ -239,6 +779,56 @@ public abstract class Controller<T extends Device> {
         }
     }
 
+    private void processInboundMessages(Connection connection, List<Message> messages) {
+        try {
+            for (InboundMessageCallback callback : beforeCallbacks) {
+                callback.processAll(connection, messages);
+                if (messages.isEmpty()) {
+                    return;
+                }
+            }
+
+            if (device != null) {
+                boolean deviceUpdated = false;
+                Iterator<Message> iterator = messages.iterator();
+                while (iterator.hasNext()) {
+                    Message message = iterator.next();
+                    try {
+                        deviceUpdated |= device.processMessage(message);
+                    } catch (Exception e) {
+                        iterator.remove();
+                        handleExceptionWhenProcessingInboundMessage(e, connection, message);
+                    }
+                }
+                if (!messages.isEmpty()) {
+                    Communicator.getInstance().notifyDeviceMessagesProcessed(device, Collections.unmodifiableList(new ArrayList<>(messages)));
+                }
+                if (deviceUpdated) {
+                    Communicator.getInstance().notifyDeviceUpdated(device);
+                }
+            }
+
+            Iterator<Message> iterator = messages.iterator();
+            while (iterator.hasNext()) {
+                if (dispatchTypedCallbacks(connection, iterator.next())) {
+                    iterator.remove();
+                }
+            }
+            if (messages.isEmpty()) {
+                return;
+            }
+
+            for (InboundMessageCallback callback : afterCallbacks) {
+                callback.processAll(connection, messages);
+                if (messages.isEmpty()) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            handleExceptionWhenProcessingInboundMessages(e, connection, messages);
+        }
+    }
+
     /**
      * A neat way to get class type of generic.
      * http://stackoverflow.com/a/3403976/576440
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator;
+
+import android.util.Log;
+
+import com.neofect.communicator.util.SpscByteRingBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the data read by the I/O thread of a connection over to a decode executor, so a slow device or
+ * callback doesn't stall the reads. The I/O thread only copies the data into a bounded queue and schedules
+ * a decode task if none is pending, so the tasks of a connection never pile up in the executor. The tasks
+ * of a connection run one at a time in the order of the data, even on an executor with many threads.
+ * <p>
+ * A chunk which doesn't fit in the queue is dropped as a whole, and the decoder resynchronizes at the gap
+ * as it does on overflow of the ring buffer. If the executor rejects the task, the data is decoded on the
+ * I/O thread instead, so that it doesn't wait for the next read.
+ *
+ * @see Controller#setDecodeExecutor(Executor, int)
+ */
+public final class DecodeHandoff {
+
+	private static final String LOG_TAG = "DecodeHandoff";
+	private static final int READ_SCRATCH_SIZE = 4096;
+
+	private final Connection connection;
+	private final Executor executor;
+	private final SpscByteRingBuffer queue;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final Runnable decodeTask = this::decode;
+	/** Serializes the decode tasks, which are the only consumer of the queue */
+	private final Object decodeLock = new Object();
+	/** Reused by the I/O thread to read from a stream */
+	private byte[] readScratch;
+
+	/** When the pending decode task was scheduled. Written by the I/O thread before scheduling. */
+	private volatile long scheduledNanos;
+	private final AtomicLong handoffCount = new AtomicLong();
+	private final AtomicLong totalHandoffLatencyNanos = new AtomicLong();
+	private final AtomicLong maxHandoffLatencyNanos = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	DecodeHandoff(Connection connection, Executor executor, int queueCapacity) {
+		this.connection = connection;
+		this.executor = executor;
+		this.queue = new SpscByteRingBuffer(queueCapacity);
+	}
+
+	/**
+	 * Called by the I/O thread only.
+	 */
+	void offer(byte[] data, int offset, int length) {
+		queue.offer(data, offset, length);
+		schedule();
+	}
+
+	/**
+	 * Read from the stream into the queue. Called by the I/O thread only. This blocks until any data is available.
+	 *
+	 * @return The size of the data read, or -1 if the end of the stream has been reached.
+	 */
+	int offerFrom(InputStream inputStream) throws IOException {
+		if (readScratch == null) {
+			readScratch = new byte[READ_SCRATCH_SIZE];
+		}
+		int size = inputStream.read(readScratch, 0, readScratch.length);
+		if (size > 0) {
+			offer(readScratch, 0, size);
+		}
+		return size;
+	}
+
+	private void schedule() {
+		if (!scheduled.compareAndSet(false, true)) {
+			// The pending task will decode the data
+			return;
+		}
+		scheduledNanos = System.nanoTime();
+		try {
+			executor.execute(decodeTask);
+		} catch (RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			Log.w(LOG_TAG, "schedule: The decode executor rejected the task! Decoding on the I/O thread. connection=" + connection.getDescription());
+			decode();
+		}
+	}
+
+	private void decode() {
+		synchronized (decodeLock) {
+			recordLatency(System.nanoTime() - scheduledNanos);
+			// Cleared before draining, so the data offered from now on schedules another task
+			scheduled.set(false);
+			try {
+				connection.handleReadData(queue);
+			} catch (Exception e) {
+				Log.e(LOG_TAG, "decode: Failed to process the data! connection=" + connection.getDescription(), e);
+			}
+		}
+	}
+
+	private void recordLatency(long latencyNanos) {
+		handoffCount.incrementAndGet();
+		totalHandoffLatencyNanos.addAndGet(latencyNanos);
+		long max = maxHandoffLatencyNanos.get();
+		while (latencyNanos > max && !maxHandoffLatencyNanos.compareAndSet(max, latencyNanos)) {
+			max = maxHandoffLatencyNanos.get();
+		}
+	}
+
+	public int getQueueCapacity() {
+		return queue.getCapacity();
+	}
+
+	/**
+	 * Returns the size of the data waiting for decoding.
+	 */
+	public int getPendingByteCount() {
+		return queue.getContentSize();
+	}
+
+	/**
+	 * Returns the total size of the data dropped because the queue was full.
+	 */
+	public long getDroppedByteCount() {
+		return queue.getDroppedByteCount();
+	}
+
+	/**
+	 * Returns how many decode tasks have run.
+	 */
+	public long getHandoffCount() {
+		return handoffCount.get();
+	}
+
+	/**
+	 * Returns the average time from scheduling a decode task to its start.
+	 */
+	public long getAverageHandoffLatencyNanos() {
+		long count = handoffCount.get();
+		return count == 0 ? 0 : totalHandoffLatencyNanos.get() / count;
+	}
+
+	/**
+	 * Returns the longest time from scheduling a decode task to its start.
+	 */
+	public long getMaxHandoffLatencyNanos() {
+		return maxHandoffLatencyNanos.get();
+	}
+
+	/**
+	 * Returns how many times the executor rejected a decode task.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Reset the latency statistics.
+	 */
+	public void resetStatistics() {
+		handoffCount.set(0);
+		totalHandoffLatencyNanos.set(0);
+		maxHandoffLatencyNanos.set(0);
+	}
+
+}
@@ -38,6 +38,18 @@ public abstract class Device {
 	 */
 	protected abstract boolean processMessage(Message message);
 	
+	/**
+	 * Returns whether {@link #processMessage(Message)} wants the messages of the given class. A subclass
+	 * which processes only some of the messages may override this, so that the others can be skipped by
+	 * {@link Controller#setSkippingUnsubscribedMessages(boolean)}. By default, it wants all the messages.
+	 * 
+	 * @param messageClass
+	 * @return
+	 */
+	protected boolean isSubscribing(Class<? extends Message> messageClass) {
+		return true;
+	}
+	
 	public Device(Connection connection) {
 		this.connection = connection;
 	}
@@ -18,6 +18,7 @@ import com.neofect.communicator.Controller;
 import com.neofect.communicator.Device;
 import com.neofect.communicator.bluetooth.BluetoothConnection;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -178,6 +179,14 @@ public class BluetoothLeConnection extends BluetoothConnection {
 		bluetoothGatt.writeCharacteristic(writeCharacteristic);
 	}
 
+	/**
+	 * The value is passed to the GATT service before this returns, so a whole array is not copied.
+	 */
+	@Override
+	public void write(byte[] data, int offset, int length) {
+		write(offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length));
+	}
+
 	@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
 	private void handleAvailableData(BluetoothGattCharacteristic characteristic) {
 		if (readCharacteristicUuid.equals(characteristic.getUuid())) {
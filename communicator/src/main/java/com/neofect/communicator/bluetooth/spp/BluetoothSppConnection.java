@@ -25,6 +25,7 @@ import com.neofect.communicator.Device;
 import com.neofect.communicator.bluetooth.BluetoothConnection;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * This class contains all information regarding to bluetooth connection and
@@ -76,7 +77,21 @@ public class BluetoothSppConnection extends BluetoothConnection {
 				Log.e(LOG_TAG, "Could not write data! The connection might not be established or already disconnected.");
 				return;
 			}
-			transferThread.write(data);
+			transferThread.write(data, 0, data.length);
+		}
+	}
+	
+	/**
+	 * The data is written before this returns, so it is not copied.
+	 */
+	@Override
+	public void write(byte[] data, int offset, int length) {
+		synchronized(this) {
+			if (transferThread == null) {
+				Log.e(LOG_TAG, "Could not write data! The connection might not be established or already disconnected.");
+				return;
+			}
+			transferThread.write(data, offset, length);
 		}
 	}
 	
@@ -125,11 +140,11 @@ public class BluetoothSppConnection extends BluetoothConnection {
 		handleFailedToConnect(exception);
 	}
 
-	void onReadMessage(byte[] data) {
-		handleReadData(data);
+	int onReadData(InputStream inputStream) throws IOException {
+		return handleReadData(inputStream);
 	}
 	
-	void onWroteMessage(byte[] data) {
+	void onWroteMessage(byte[] data, int offset, int length) {
 		// Does nothing
 	}
 	
@@ -31,7 +31,6 @@ import java.io.OutputStream;
 class BluetoothSppTransferThread extends Thread {
 
 	private static final String LOG_TAG = BluetoothSppTransferThread.class.getSimpleName();
-	private static final int BUFFER_SIZE = 1024;
 	
 	private BluetoothSppConnection connection;
 	
@@ -39,7 +38,6 @@ class BluetoothSppTransferThread extends Thread {
 	private InputStream inputStream; 
 	private OutputStream outputStream;
 
-	private byte[] buffer = new byte[BUFFER_SIZE];
 	private boolean socketClosed = false;
 	
 	/**
@@ -70,15 +68,15 @@ class BluetoothSppTransferThread extends Thread {
 		}
 	}
 	
-	void write(byte[] data) {
+	void write(byte[] data, int offset, int length) {
 		synchronized(this) {
 			if (!connection.isConnected()) {
 				Log.e(LOG_TAG, "write: Connection is closed!");
 				return;
 			}
 			try {
-				outputStream.write(data);
-				connection.onWroteMessage(data);
+				outputStream.write(data, offset, length);
+				connection.onWroteMessage(data, offset, length);
 			} catch (Exception e) {
 				Log.e(LOG_TAG, "write: Failed to write!", e);
 				onDisconnected();
@@ -110,10 +108,10 @@ class BluetoothSppTransferThread extends Thread {
 	public void run() {
 		do {
 			try {
-				int numberOfReadBytes = inputStream.read(buffer, 0, buffer.length);
-				byte[] readData = new byte[numberOfReadBytes];
-				System.arraycopy(buffer, 0, readData, 0, numberOfReadBytes);
-				connection.onReadMessage(readData);
+				if (connection.onReadData(inputStream) < 0) {
+					Log.d(LOG_TAG, "run: End of stream, device=" + connection.getDescriptionWithAddress());
+					onDisconnected();
+				}
 			} catch (IOException e) {
 				Log.d(LOG_TAG, "run: IOException on read(), device=" + connection.getDescriptionWithAddress());
 				onDisconnected();
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+/**
+ * A message whose encoded bytes are determined by its class and {@link #getCacheKey()}, such as a command
+ * with a few fixed parameters. The controller keeps the encoded bytes of the recently sent ones and
+ * writes them again without encoding.
+ */
+public interface CacheableMessage extends Message {
+
+	/**
+	 * Returns the value which identifies the payload among the messages of the same class. It must
+	 * implement {@link Object#equals(Object)} and {@link Object#hashCode()}, and be immutable.
+	 */
+	Object getCacheKey();
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the encoded bytes of {@link CacheableMessage}s keyed by the message class and the cache key.
+ * The least recently used entry is evicted when it is full. A lookup allocates nothing.
+ */
+public class EncodedMessageCache {
+
+	private static final class Key {
+		private Class<?> messageClass;
+		private Object cacheKey;
+
+		Key(Class<?> messageClass, Object cacheKey) {
+			this.messageClass = messageClass;
+			this.cacheKey = cacheKey;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return messageClass == other.messageClass && (cacheKey == null ? other.cacheKey == null : cacheKey.equals(other.cacheKey));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * messageClass.hashCode() + (cacheKey == null ? 0 : cacheKey.hashCode());
+		}
+	}
+
+	private final int maxEntries;
+	private final Map<Key, byte[]> entries;
+	/** Reused for lookups. Guarded by this. */
+	private final Key lookupKey = new Key(null, null);
+
+	public EncodedMessageCache(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Invalid max entries! maxEntries=" + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+				return size() > EncodedMessageCache.this.maxEntries;
+			}
+		};
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Returns the cached bytes of the message, or null if not cached. The array must not be modified.
+	 */
+	public synchronized byte[] get(CacheableMessage message) {
+		lookupKey.messageClass = message.getClass();
+		lookupKey.cacheKey = message.getCacheKey();
+		byte[] encodedMessage = entries.get(lookupKey);
+		lookupKey.messageClass = null;
+		lookupKey.cacheKey = null;
+		return encodedMessage;
+	}
+
+	public synchronized void put(CacheableMessage message, byte[] encodedMessage) {
+		entries.put(new Key(message.getClass(), message.getCacheKey()), encodedMessage);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import com.neofect.communicator.util.ByteRingBuffer;
+
+/**
+ * A decoder which keeps its parse progress between the calls of {@link #decodeMessage}, so a message
+ * arriving in many small chunks isn't parsed from the beginning on every chunk.
+ * <p>
+ * A subclass implements {@link #decodeIncrementally} and, when it needs more data, remembers where it
+ * stopped in its own fields, calls {@link #require(int)} with the content size it needs to proceed
+ * and returns null. Until the input buffer has that much data, {@link #decodeMessage} returns null
+ * immediately. The state is reset by {@link #resetState()} when the input is discontinued or
+ * decoding fails, so the input buffer must not be consumed by anything other than the decoder.
+ */
+public abstract class IncrementalMessageDecoder extends MessageDecoder {
+
+	private int requiredSize = 0;
+
+	public IncrementalMessageDecoder(MessageClassMapper messageClassMapper) {
+		super(messageClassMapper);
+	}
+
+	@Override
+	public final Message decodeMessage(ByteRingBuffer inputBuffer) {
+		if (inputBuffer.getContentSize() < requiredSize) {
+			return null;
+		}
+		requiredSize = 0;
+		try {
+			return decodeIncrementally(inputBuffer);
+		} catch (RuntimeException e) {
+			resetState();
+			throw e;
+		}
+	}
+
+	/**
+	 * Continue to decode from the progress of the last call.
+	 *
+	 * @param inputBuffer
+	 * @return The decoded message, or null if more data is needed.
+	 */
+	protected abstract Message decodeIncrementally(ByteRingBuffer inputBuffer);
+
+	/**
+	 * Skip the next calls of {@link #decodeIncrementally} until the input buffer has at least the given size of content.
+	 *
+	 * @param contentSize
+	 */
+	protected final void require(int contentSize) {
+		requiredSize = contentSize;
+	}
+
+	protected final int getRequiredSize() {
+		return requiredSize;
+	}
+
+	/**
+	 * Discard the parse progress. A subclass which overrides this must call the super method.
+	 */
+	protected void resetState() {
+		requiredSize = 0;
+	}
+
+	@Override
+	public void onDiscontinuity(ByteRingBuffer inputBuffer) {
+		resetState();
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import com.neofect.communicator.util.ByteRingBuffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A mapper for the message IDs of a fixed length from 1 to 4 bytes, which looks up a message class
+ * without going through the registered classes one by one.
+ * <p>
+ * The classes of 1-byte IDs are kept in a 256-entry table indexed by the ID. Longer IDs are packed
+ * into an int and kept in an open-addressed hash table. The IDs of the classes are kept in an identity
+ * map, and the arrays it returns are shared, so they must not be modified.
+ */
+public class IndexedMessageClassMapper implements MessageClassMapper {
+
+	private static final int INITIAL_TABLE_SIZE = 16;
+
+	private final int messageIdLength;
+	private final Map<Class<? extends Message>, byte[]> messageIds = new IdentityHashMap<>();
+
+	/** The table indexed by the ID, used when the ID is 1 byte */
+	private Class<? extends Message>[] directTable;
+
+	/** The open-addressed table, used when the ID is longer than 1 byte */
+	private int[] hashedIds;
+	private Class<? extends Message>[] hashedClasses;
+	private int hashedCount = 0;
+
+	public IndexedMessageClassMapper(int messageIdLength) {
+		if (messageIdLength < 1 || messageIdLength > 4) {
+			throw new IllegalArgumentException("Message ID length must be 1 to 4! messageIdLength=" + messageIdLength);
+		}
+		this.messageIdLength = messageIdLength;
+		if (messageIdLength == 1) {
+			directTable = newClassTable(256);
+		} else {
+			hashedIds = new int[INITIAL_TABLE_SIZE];
+			hashedClasses = newClassTable(INITIAL_TABLE_SIZE);
+		}
+	}
+
+	public int getMessageIdLength() {
+		return messageIdLength;
+	}
+
+	/**
+	 * Map the message ID packed in big-endian order and the message class to each other.
+	 *
+	 * @param messageId
+	 * @param messageClass
+	 */
+	public void register(int messageId, Class<? extends Message> messageClass) {
+		if (messageIdLength < 4 && (messageId >>> (8 * messageIdLength)) != 0) {
+			throw new IllegalArgumentException("Message ID is longer than " + messageIdLength + " bytes! messageId=0x" + Integer.toHexString(messageId));
+		}
+		if (messageClass == null) {
+			throw new IllegalArgumentException("Message class is null!");
+		}
+		if (getMessageClassById(messageId, messageIdLength) != null) {
+			throw new IllegalArgumentException("Message ID is already registered! messageId=0x" + Integer.toHexString(messageId));
+		}
+		if (messageIds.containsKey(messageClass)) {
+			throw new IllegalArgumentException("Message class is already registered! messageClass=" + messageClass.getName());
+		}
+
+		if (directTable != null) {
+			directTable[messageId] = messageClass;
+		} else {
+			if ((hashedCount + 1) * 2 > hashedIds.length) {
+				rehash(hashedIds.length * 2);
+			}
+			insertHashed(messageId, messageClass);
+			++hashedCount;
+		}
+		messageIds.put(messageClass, toBytes(messageId));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<? extends Message>[] newClassTable(int size) {
+		return (Class<? extends Message>[]) new Class<?>[size];
+	}
+
+	private byte[] toBytes(int messageId) {
+		byte[] bytes = new byte[messageIdLength];
+		for (int i = 0; i < messageIdLength; ++i) {
+			bytes[i] = (byte) (messageId >>> (8 * (messageIdLength - 1 - i)));
+		}
+		return bytes;
+	}
+
+	private static int hash(int messageId) {
+		int hash = messageId * 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private void insertHashed(int messageId, Class<? extends Message> messageClass) {
+		int mask = hashedIds.length - 1;
+		int index = hash(messageId) & mask;
+		while (hashedClasses[index] != null) {
+			index = (index + 1) & mask;
+		}
+		hashedIds[index] = messageId;
+		hashedClasses[index] = messageClass;
+	}
+
+	private void rehash(int tableSize) {
+		int[] oldIds = hashedIds;
+		Class<? extends Message>[] oldClasses = hashedClasses;
+		hashedIds = new int[tableSize];
+		hashedClasses = newClassTable(tableSize);
+		for (int i = 0; i < oldIds.length; ++i) {
+			if (oldClasses[i] != null) {
+				insertHashed(oldIds[i], oldClasses[i]);
+			}
+		}
+	}
+
+	@Override
+	public Class<? extends Message> getMessageClassById(int messageId, int messageIdLength) {
+		if (messageIdLength != this.messageIdLength) {
+			return null;
+		}
+		if (directTable != null) {
+			return (messageId >>> 8) != 0 ? null : directTable[messageId];
+		}
+		int mask = hashedIds.length - 1;
+		int index = hash(messageId) & mask;
+		Class<? extends Message> messageClass;
+		while ((messageClass = hashedClasses[index]) != null) {
+			if (hashedIds[index] == messageId) {
+				return messageClass;
+			}
+			index = (index + 1) & mask;
+		}
+		return null;
+	}
+
+	@Override
+	public Class<? extends Message> getMessageClassById(byte[] messageId) {
+		if (messageId.length != messageIdLength) {
+			return null;
+		}
+		int packedId = 0;
+		for (byte idByte : messageId) {
+			packedId = (packedId << 8) | (idByte & 0xff);
+		}
+		return getMessageClassById(packedId, messageIdLength);
+	}
+
+	/**
+	 * Look up the message class by the ID in the buffer without copying it out.
+	 *
+	 * @param inputBuffer
+	 * @param offset The position of the ID from the head of the buffer.
+	 * @return
+	 */
+	public Class<? extends Message> getMessageClassById(ByteRingBuffer inputBuffer, int offset) {
+		int packedId = 0;
+		for (int i = 0; i < messageIdLength; ++i) {
+			packedId = (packedId << 8) | (inputBuffer.peek(offset + i) & 0xff);
+		}
+		return getMessageClassById(packedId, messageIdLength);
+	}
+
+	@Override
+	public byte[] getMessageIdByClass(Class<? extends Message> messageClass) {
+		return messageIds.get(messageClass);
+	}
+
+	/**
+	 * Returns all the registered message classes. Override this if some of them are not decoded from
+	 * the inbound data.
+	 */
+	@Override
+	public Collection<Class<? extends Message>> getMessageClasses() {
+		return new ArrayList<>(messageIds.keySet());
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import com.neofect.communicator.util.ByteSlice;
+
+/**
+ * A message which keeps a copy of its payload when decoded and parses it on first access, so the messages
+ * which nobody reads cost only the copy. The getters of a subclass call {@link #ensureParsed()} before
+ * returning the fields set by {@link #parsePayload}.
+ * <p>
+ * Since the payload is parsed after the message is dispatched, a corrupt payload is found by the first
+ * access, which throws the exception of {@link #parsePayload} wrapped in {@link IllegalStateException}.
+ */
+public abstract class LazyMessage extends MessageImpl {
+
+	private byte[] payload;
+	private volatile boolean parsed = false;
+
+	@Override
+	public final void decodePayload(byte[] data, int startIndex, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(data, startIndex, copy, 0, length);
+		setPayload(copy);
+	}
+
+	@Override
+	public final void decodePayload(ByteSlice payload) {
+		setPayload(payload.toByteArray());
+	}
+
+	private synchronized void setPayload(byte[] payload) {
+		this.payload = payload;
+		this.parsed = false;
+	}
+
+	/**
+	 * Parse the payload kept by the decoding, if not parsed yet. It is safe to call from any thread.
+	 */
+	protected final void ensureParsed() {
+		if (parsed) {
+			return;
+		}
+		synchronized (this) {
+			if (parsed || payload == null) {
+				return;
+			}
+			try {
+				parsePayload(payload, 0, payload.length);
+			} catch (RuntimeException e) {
+				throw new IllegalStateException("Failed to parse payload! messageClass=" + getClass().getSimpleName(), e);
+			}
+			// The payload is no longer needed
+			payload = null;
+			parsed = true;
+		}
+	}
+
+	/**
+	 * Returns whether the payload has been parsed.
+	 */
+	public final boolean isParsed() {
+		return parsed;
+	}
+
+	/**
+	 * Set the fields from the payload. Called once on the first access.
+	 *
+	 * @param data
+	 * @param startIndex
+	 * @param length
+	 */
+	protected abstract void parsePayload(byte[] data, int startIndex, int length);
+
+}
@@ -15,6 +15,10 @@
  */
 package com.neofect.communicator.message;
 
+import com.neofect.communicator.util.ByteSlice;
+
+import java.nio.ByteBuffer;
+
 /**
  * @author neo.kim@neofect.com
  * @date Jan 24, 2014
@@ -24,5 +28,37 @@ public interface Message {
 	String getDescription();
 	byte[] encodePayload();
 	void decodePayload(byte[] data, int startIndex, int length);
+
+	/**
+	 * Decode the payload from a view of the internal buffer of the connection. By default, it passes a copy
+	 * of the payload to {@link #decodePayload(byte[], int, int)}, so the existing messages may keep the array.
+	 * Override this to decode without copying, and do not keep a reference to the view after this returns.
+	 *
+	 * @param payload
+	 */
+	default void decodePayload(ByteSlice payload) {
+		decodePayload(payload.toByteArray(), 0, payload.length());
+	}
+
+	/**
+	 * Returns the size of the encoded payload if it is known before encoding, or -1.
+	 */
+	default int getPayloadSizeHint() {
+		return -1;
+	}
+
+	/**
+	 * Encode the payload into the buffer from its position. By default, it puts the result of {@link #encodePayload()}.
+	 * Override this to encode without allocating an array. If the buffer is too small,
+	 * {@link java.nio.BufferOverflowException} may be thrown and the caller retries with a larger buffer.
+	 *
+	 * @param target
+	 */
+	default void encodePayload(ByteBuffer target) {
+		byte[] payload = encodePayload();
+		if (payload != null) {
+			target.put(payload);
+		}
+	}
 	
 }
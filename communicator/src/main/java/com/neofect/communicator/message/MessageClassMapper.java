@@ -15,6 +15,9 @@
  */
 package com.neofect.communicator.message;
 
+import java.util.Collection;
+import java.util.Collections;
+
 /**
  * @author neo.kim@neofect.com
  * @date 2014. 5. 22.
@@ -23,5 +26,38 @@ public interface MessageClassMapper {
 	
 	Class<? extends Message> getMessageClassById(byte[] messageId);
 	byte[] getMessageIdByClass(Class<? extends Message> messageClass);
+
+	/**
+	 * Look up the message class by the ID of up to 4 bytes packed in big-endian order, e.g. 0x0102
+	 * for the ID bytes { 0x01, 0x02 }. By default, the ID is unpacked into an array.
+	 *
+	 * @param messageId
+	 * @param messageIdLength
+	 * @return
+	 */
+	default Class<? extends Message> getMessageClassById(int messageId, int messageIdLength) {
+		byte[] idBytes = new byte[messageIdLength];
+		for (int i = 0; i < messageIdLength; ++i) {
+			idBytes[i] = (byte) (messageId >>> (8 * (messageIdLength - 1 - i)));
+		}
+		return getMessageClassById(idBytes);
+	}
+
+	/**
+	 * Returns the message classes which are decoded from the inbound data. {@link MessageDecoder}
+	 * prepares their instantiation in advance, so a message class which cannot be instantiated fails
+	 * when the decoder is created rather than when the message is received first.
+	 */
+	default Collection<Class<? extends Message>> getMessageClasses() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Returns the factory which creates the instances of the given message class without reflection,
+	 * or null to use the no-arg constructor of the class.
+	 */
+	default MessageFactory<? extends Message> getMessageFactory(Class<? extends Message> messageClass) {
+		return null;
+	}
 	
 }
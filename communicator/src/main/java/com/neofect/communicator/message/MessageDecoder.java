@@ -20,6 +20,12 @@ import android.util.Log;
 import com.neofect.communicator.exception.UndefinedMessageIdException;
 import com.neofect.communicator.util.ByteArrayConverter;
 import com.neofect.communicator.util.ByteRingBuffer;
+import com.neofect.communicator.util.ByteSlice;
+
+import java.lang.reflect.Constructor;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author neo.kim@neofect.com
@@ -30,9 +36,37 @@ public abstract class MessageDecoder {
 	private static final String LOG_TAG = "MessageDecoder";
 	
 	private MessageClassMapper messageClassMapper;
+	private final Map<Class<? extends Message>, MessageFactory<?>> registeredFactories = new ConcurrentHashMap<>();
+	/** The factories resolved for the current mapper */
+	private final Map<Class<? extends Message>, MessageFactory<?>> messageFactories = new ConcurrentHashMap<>();
+	private long unknownMessageIdCount = 0;
+	private long corruptPayloadCount = 0;
+	private long skippedByteCount = 0;
+	private long filteredMessageCount = 0;
+	private volatile MessageClassFilter messageClassFilter;
+	
+	private static class ConstructorMessageFactory implements MessageFactory<Message> {
+		private final Constructor<? extends Message> constructor;
+
+		ConstructorMessageFactory(Constructor<? extends Message> constructor) {
+			this.constructor = constructor;
+		}
+
+		@Override
+		public Message create() {
+			try {
+				return constructor.newInstance();
+			} catch (Exception e) {
+				throw new RuntimeException("Failed to invoke the constructor of '" + constructor.getDeclaringClass().getName() + "'", e);
+			}
+		}
+	}
 	
 	public MessageDecoder(MessageClassMapper messageClassMapper) {
 		this.messageClassMapper = messageClassMapper;
+		if (messageClassMapper != null) {
+			preloadMessageClasses(messageClassMapper.getMessageClasses());
+		}
 	}
 	
 	public MessageClassMapper getMessageClassMapper() {
@@ -41,6 +75,117 @@ public abstract class MessageDecoder {
 	
 	public void setMessageClassMapper(MessageClassMapper messageClassMapper) {
 		this.messageClassMapper = messageClassMapper;
+		messageFactories.clear();
+		if (messageClassMapper != null) {
+			preloadMessageClasses(messageClassMapper.getMessageClasses());
+		}
+	}
+
+	/**
+	 * Register a factory which creates the instances of the given message class without reflection.
+	 * 
+	 * @param messageClass
+	 * @param factory
+	 */
+	public <M extends Message> void registerMessageFactory(Class<M> messageClass, MessageFactory<? extends M> factory) {
+		registeredFactories.put(messageClass, factory);
+		messageFactories.put(messageClass, factory);
+	}
+
+	/**
+	 * Prepare the factories of the given message classes. The no-arg constructor is looked up and cached
+	 * for a class which has no factory from {@link #registerMessageFactory} or the mapper. This throws
+	 * {@link IllegalArgumentException} if any of them cannot be instantiated, e.g. the constructor is
+	 * removed by ProGuard.
+	 * 
+	 * @param messageClasses
+	 */
+	public void preloadMessageClasses(Collection<Class<? extends Message>> messageClasses) {
+		for (Class<? extends Message> messageClass : messageClasses) {
+			getMessageFactory(messageClass);
+		}
+	}
+
+	private MessageFactory<?> getMessageFactory(Class<? extends Message> messageClass) {
+		MessageFactory<?> factory = messageFactories.get(messageClass);
+		if (factory != null) {
+			return factory;
+		}
+		factory = registeredFactories.get(messageClass);
+		if (factory == null && messageClassMapper != null) {
+			factory = messageClassMapper.getMessageFactory(messageClass);
+		}
+		if (factory != null) {
+			messageFactories.put(messageClass, factory);
+			return factory;
+		}
+		try {
+			Constructor<? extends Message> constructor = messageClass.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			factory = new ConstructorMessageFactory(constructor);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("No accessible no-arg constructor of message class '" + messageClass.getName() + "'", e);
+		}
+		messageFactories.put(messageClass, factory);
+		return factory;
+	}
+	
+	/**
+	 * Returns how many messages have been dropped by {@link #tryDecodeMessagePayload} because of the unknown message IDs.
+	 */
+	public long getUnknownMessageIdCount() {
+		return unknownMessageIdCount;
+	}
+
+	/**
+	 * Returns how many messages have been dropped by {@link #tryDecodeMessagePayload} because their payload failed to be decoded.
+	 */
+	public long getCorruptPayloadCount() {
+		return corruptPayloadCount;
+	}
+
+	/**
+	 * Returns the total size of the data skipped by {@link #skip(ByteRingBuffer, int)}.
+	 */
+	public long getSkippedByteCount() {
+		return skippedByteCount;
+	}
+
+	/**
+	 * Returns how many messages have been dropped without decoding the payload because of the filter.
+	 */
+	public long getFilteredMessageCount() {
+		return filteredMessageCount;
+	}
+
+	public MessageClassFilter getMessageClassFilter() {
+		return messageClassFilter;
+	}
+
+	/**
+	 * Set the filter which decides the message classes to decode. The frames of the other classes are
+	 * dropped before their message is created, like the ones with an unknown message ID. It applies only
+	 * to {@link #tryDecodeMessagePayload}, since the throwing variants must return a message.
+	 *
+	 * @param messageClassFilter Null to decode all the messages.
+	 */
+	public void setMessageClassFilter(MessageClassFilter messageClassFilter) {
+		this.messageClassFilter = messageClassFilter;
+	}
+
+	/**
+	 * Consume the data which is not a part of any message, e.g. the garbage before a header, and count it.
+	 * 
+	 * @param inputBuffer
+	 * @param size
+	 */
+	protected final void skip(ByteRingBuffer inputBuffer, int size) {
+		inputBuffer.consume(size);
+		skippedByteCount += size;
+	}
+
+	private static boolean isDebugLoggable() {
+		return Log.isLoggable(LOG_TAG, Log.DEBUG);
 	}
 	
 	private Message createMessage(byte[] messageId) {
@@ -49,9 +194,12 @@ public abstract class MessageDecoder {
 		if (messageClass == null) {
 			throw new UndefinedMessageIdException(messageId, "Not existing message ID! '0x" + ByteArrayConverter.byteArrayToHexWithoutSpace(messageId) + "'");
 		}
-		
+		return createMessage(messageId, messageClass);
+	}
+
+	private Message createMessage(byte[] messageId, Class<? extends Message> messageClass) {
 		try {
-			return messageClass.newInstance();
+			return getMessageFactory(messageClass).create();
 		} catch (Exception e) {
 			throw new RuntimeException("Failed to instantiate a message class from message bytes! messageId='0x" + ByteArrayConverter.byteArrayToHexWithoutSpace(messageId) + "'", e);
 		}
@@ -81,24 +229,173 @@ public abstract class MessageDecoder {
 			message.decodePayload(data, startIndex, length);
 			return message;
 		} catch(Exception e) {
+			MessagePool.release(message);
+			String payload;
 			try {
-				String payload = ByteArrayConverter.byteArrayToHex(data, startIndex, startIndex + length);
-				throw new RuntimeException("Failed to decode message! messageClass=" + message.getClass().getSimpleName() + ", payload=" + payload, e);
+				payload = ByteArrayConverter.byteArrayToHex(data, startIndex, startIndex + length);
 			} catch(Exception e2) {
-				throw new RuntimeException("Failed to decode message! messageClass=" + message.getClass().getSimpleName(), e);
+				payload = "(invalid range)";
 			}
+			throw new RuntimeException("Failed to decode message! messageClass=" + message.getClass().getSimpleName() + ", payload=" + payload, e);
 		}
 	}
+
+	/**
+	 * Same as {@link #decodeMessagePayload(byte[], byte[], int, int)} but the payload is passed as a view
+	 * without copying it, like {@link ByteRingBuffer#slice(int, int)}. The view must be valid during this call,
+	 * so consume the data from the buffer after this returns.
+	 *
+	 * @param messageId
+	 * @param payload
+	 * @return
+	 */
+	protected final Message decodeMessagePayload(byte[] messageId, ByteSlice payload) {
+		if (messageClassMapper == null) {
+			Log.e(LOG_TAG, "Message class mapper is not set!");
+			return null;
+		}
+
+		// Create a message instance
+		Message message = createMessage(messageId);
+
+		// Decode payload data
+		try {
+			message.decodePayload(payload);
+			return message;
+		} catch(Exception e) {
+			MessagePool.release(message);
+			String payloadHex = payload.isValid() ? ByteArrayConverter.byteArrayToHex(payload.toByteArray()) : "(released)";
+			throw new RuntimeException("Failed to decode message! messageClass=" + message.getClass().getSimpleName() + ", payload=" + payloadHex, e);
+		}
+	}
+
+	/**
+	 * Same as {@link #decodeMessagePayload(byte[], byte[], int, int)} but returns null instead of throwing an
+	 * exception if the message ID is unknown or the payload fails to be decoded, and counts it. The details
+	 * are logged only if the debug log of "MessageDecoder" is enabled, so a noisy link costs little.
+	 * Returning null from {@link #decodeMessage} waits for more data, so the caller should go on with the
+	 * following data after consuming the dropped message.
+	 * 
+	 * @param messageId
+	 * @param data
+	 * @param startIndex
+	 * @param length
+	 * @return The decoded message, or null if it is dropped.
+	 */
+	protected final Message tryDecodeMessagePayload(byte[] messageId, byte[] data, int startIndex, int length) {
+		Message message = tryCreateMessage(messageId);
+		if (message == null) {
+			return null;
+		}
+		try {
+			message.decodePayload(data, startIndex, length);
+			return message;
+		} catch (Exception e) {
+			MessagePool.release(message);
+			++corruptPayloadCount;
+			if (isDebugLoggable()) {
+				Log.d(LOG_TAG, "tryDecodeMessagePayload: Failed to decode message! messageClass=" + message.getClass().getSimpleName()
+						+ ", payload=" + ByteArrayConverter.byteArrayToHex(data, startIndex, startIndex + length), e);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Same as {@link #tryDecodeMessagePayload(byte[], byte[], int, int)} but the payload is passed as a view
+	 * like {@link #decodeMessagePayload(byte[], ByteSlice)}.
+	 * 
+	 * @param messageId
+	 * @param payload
+	 * @return The decoded message, or null if it is dropped.
+	 */
+	protected final Message tryDecodeMessagePayload(byte[] messageId, ByteSlice payload) {
+		Message message = tryCreateMessage(messageId);
+		if (message == null) {
+			return null;
+		}
+		try {
+			message.decodePayload(payload);
+			return message;
+		} catch (Exception e) {
+			MessagePool.release(message);
+			++corruptPayloadCount;
+			if (isDebugLoggable()) {
+				String payloadHex = payload.isValid() ? ByteArrayConverter.byteArrayToHex(payload.toByteArray()) : "(released)";
+				Log.d(LOG_TAG, "tryDecodeMessagePayload: Failed to decode message! messageClass=" + message.getClass().getSimpleName() + ", payload=" + payloadHex, e);
+			}
+			return null;
+		}
+	}
+
+	private Message tryCreateMessage(byte[] messageId) {
+		if (messageClassMapper == null) {
+			Log.e(LOG_TAG, "Message class mapper is not set!");
+			return null;
+		}
+		Class<? extends Message> messageClass = messageClassMapper.getMessageClassById(messageId);
+		if (messageClass == null) {
+			++unknownMessageIdCount;
+			if (isDebugLoggable()) {
+				Log.d(LOG_TAG, "tryDecodeMessagePayload: Not existing message ID! '0x" + ByteArrayConverter.byteArrayToHexWithoutSpace(messageId) + "'");
+			}
+			return null;
+		}
+		MessageClassFilter filter = messageClassFilter;
+		if (filter != null && !filter.accept(messageClass)) {
+			++filteredMessageCount;
+			return null;
+		}
+		// A failure to instantiate is a bug rather than corrupt data, so it still throws
+		return createMessage(messageId, messageClass);
+	}
+	
+	/**
+	 * Called before {@link #decodeMessage} when some data has been lost by overflow of the input buffer,
+	 * so the content may start in the middle of a message. A subclass with a stateful or framed protocol
+	 * should override this to drop the partial data and resynchronize, e.g. by skipping to the next header.
+	 * 
+	 * @param inputBuffer
+	 */
+	public void onDiscontinuity(ByteRingBuffer inputBuffer) {
+	}
 	
 	/**
 	 * A subclass must implement this method to create a {@link Message}
 	 * from byte data. The input buffer is passed through {@link ByteRingBuffer} class.
 	 * If the passed byte data is not long enough to create message, just return null.
 	 * This method will be called again once it gets more data from connection.
+	 * <p>
+	 * A decoder may call {@link ByteRingBuffer#mark()} and read forward with consuming reads.
+	 * If it doesn't finish the mark by itself, the mark is committed when a message is returned
+	 * or an exception is thrown, and reset when null is returned.
 	 * 
 	 * @param inputBuffer
 	 * @return
 	 */
 	public abstract Message decodeMessage(ByteRingBuffer inputBuffer);
+
+	/**
+	 * Decode every complete message in the input buffer in one pass and pass them to the sink in order.
+	 * By default, it calls {@link #decodeMessage} until it returns null, committing the mark of
+	 * {@link ByteRingBuffer} after each message. If an exception is thrown, the messages passed
+	 * to the sink before it remain valid.
+	 * 
+	 * @param inputBuffer
+	 * @param sink
+	 * @return The number of messages passed to the sink.
+	 */
+	public int decodeMessages(ByteRingBuffer inputBuffer, MessageSink sink) {
+		int count = 0;
+		Message message;
+		while ((message = decodeMessage(inputBuffer)) != null) {
+			if (inputBuffer.isMarked()) {
+				inputBuffer.commit();
+			}
+			sink.accept(message);
+			++count;
+		}
+		return count;
+	}
 	
 }
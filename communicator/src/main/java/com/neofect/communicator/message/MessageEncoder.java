@@ -15,13 +15,20 @@
  */
 package com.neofect.communicator.message;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
  * @author neo.kim@neofect.com
  * @date Feb 5, 2014
  */
 public abstract class MessageEncoder {
 	
+	private static final int DEFAULT_BUFFER_CAPACITY = 64;
+	private static final int MAX_ENCODED_SIZE = 1024 * 1024;
+	
 	private MessageClassMapper messageClassMapper;
+	private final boolean encodingIntoBuffer = overridesEncodingIntoBuffer(getClass());
 	
 	public MessageEncoder(MessageClassMapper messageClassMapper) {
 		this.messageClassMapper = messageClassMapper;
@@ -46,5 +53,95 @@ public abstract class MessageEncoder {
 	 * @return
 	 */
 	public abstract byte[] encodeMessage(Message message);
+
+	/**
+	 * Encode the message into the buffer from its position. By default, it puts the result of
+	 * {@link #encodeMessage(Message)}. Override this with {@link Message#encodePayload(ByteBuffer)} to send
+	 * messages without allocating arrays, and implement {@link #encodeMessage(Message)} by
+	 * {@link #encodeMessageToArray(Message)}. If the buffer is too small, {@link BufferOverflowException}
+	 * may be thrown and the caller retries with a larger buffer.
+	 * 
+	 * @param message
+	 * @param target
+	 */
+	public void encodeMessage(Message message, ByteBuffer target) {
+		byte[] encoded = encodeMessage(message);
+		if (encoded != null) {
+			target.put(encoded);
+		}
+	}
+
+	/**
+	 * Returns whether {@link #encodeMessage(Message, ByteBuffer)} is overridden. If not, the array of
+	 * {@link #encodeMessage(Message)} is written as it is rather than copied through a buffer.
+	 * 
+	 * @return
+	 */
+	public final boolean isEncodingIntoBuffer() {
+		return encodingIntoBuffer;
+	}
+
+	/**
+	 * Returns the size of the encoded message if it is known before encoding, or -1. It is used to
+	 * prepare the buffer for {@link #encodeMessage(Message, ByteBuffer)}.
+	 * 
+	 * @param message
+	 * @return
+	 */
+	public int getEncodedSizeHint(Message message) {
+		return -1;
+	}
+
+	/**
+	 * Encode the message into the given buffer, or into a larger one if it doesn't fit.
+	 * 
+	 * @param message
+	 * @param buffer The buffer to reuse. A new one is allocated if null.
+	 * @return The buffer which has the encoded message between 0 and its limit.
+	 */
+	public final ByteBuffer encode(Message message, ByteBuffer buffer) {
+		int sizeHint = getEncodedSizeHint(message);
+		if (buffer == null || buffer.capacity() < sizeHint) {
+			buffer = ByteBuffer.allocate(Math.max(sizeHint, DEFAULT_BUFFER_CAPACITY));
+		}
+		while (true) {
+			buffer.clear();
+			try {
+				encodeMessage(message, buffer);
+				buffer.flip();
+				return buffer;
+			} catch (BufferOverflowException e) {
+				if (buffer.capacity() >= MAX_ENCODED_SIZE) {
+					throw new IllegalStateException("Encoded message is too large! capacity=" + buffer.capacity(), e);
+				}
+				buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_ENCODED_SIZE));
+			}
+		}
+	}
+
+	/**
+	 * Encode the message into a new array by {@link #encodeMessage(Message, ByteBuffer)}, or by
+	 * {@link #encodeMessage(Message)} if the former isn't overridden.
+	 * 
+	 * @param message
+	 * @return
+	 */
+	protected final byte[] encodeMessageToArray(Message message) {
+		if (!encodingIntoBuffer) {
+			return encodeMessage(message);
+		}
+		ByteBuffer buffer = encode(message, null);
+		byte[] encoded = new byte[buffer.limit()];
+		buffer.get(encoded);
+		return encoded;
+	}
+
+	private static boolean overridesEncodingIntoBuffer(Class<?> encoderClass) {
+		try {
+			return encoderClass.getMethod("encodeMessage", Message.class, ByteBuffer.class).getDeclaringClass() != MessageEncoder.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
 	
 }
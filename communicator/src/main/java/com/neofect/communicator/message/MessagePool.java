@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A factory which reuses the released instances of a {@link PooledMessage} class. Register it to the decoder
+ * like any other factory, e.g. <code>decoder.registerMessageFactory(SensorMessage.class, new MessagePool&lt;&gt;(SensorMessage::new, 16))</code>.
+ * <p>
+ * The pool keeps up to the given number of released messages; the others are left to the garbage collector.
+ * It is safe to acquire and release from different threads.
+ * <p>
+ * For tests, {@link #setLeakDetectionEnabled(boolean)} tracks the messages acquired from any pool until
+ * they are recycled, so {@link #getLeakedMessages()} returns the ones which are never released.
+ */
+public class MessagePool<M extends PooledMessage> implements MessageFactory<M> {
+
+	private static volatile boolean leakDetectionEnabled = false;
+	private static final Set<PooledMessage> unreleasedMessages = Collections.newSetFromMap(new IdentityHashMap<PooledMessage, Boolean>());
+
+	private final MessageFactory<M> factory;
+	private final PooledMessage[] freeMessages;
+	private int freeCount = 0;
+	private long createdCount = 0;
+
+	public MessagePool(MessageFactory<M> factory, int maxPoolSize) {
+		if (maxPoolSize < 0) {
+			throw new IllegalArgumentException("Invalid max pool size! maxPoolSize=" + maxPoolSize);
+		}
+		this.factory = factory;
+		this.freeMessages = new PooledMessage[maxPoolSize];
+	}
+
+	/**
+	 * Returns a released message if any, or a new one. The returned message has one reference.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public M create() {
+		PooledMessage message = null;
+		synchronized (this) {
+			if (freeCount > 0) {
+				message = freeMessages[--freeCount];
+				freeMessages[freeCount] = null;
+			} else {
+				++createdCount;
+			}
+		}
+		if (message == null) {
+			message = factory.create();
+		}
+		message.onAcquired(this);
+		if (leakDetectionEnabled) {
+			synchronized (unreleasedMessages) {
+				unreleasedMessages.add(message);
+			}
+		}
+		return (M) message;
+	}
+
+	void recycle(PooledMessage message) {
+		if (leakDetectionEnabled) {
+			synchronized (unreleasedMessages) {
+				unreleasedMessages.remove(message);
+			}
+		}
+		message.reset();
+		synchronized (this) {
+			if (freeCount < freeMessages.length) {
+				freeMessages[freeCount++] = message;
+			}
+		}
+	}
+
+	/**
+	 * Returns how many messages have been created because the pool was empty.
+	 */
+	public synchronized long getCreatedCount() {
+		return createdCount;
+	}
+
+	/**
+	 * Returns the number of released messages kept for reuse.
+	 */
+	public synchronized int getPooledCount() {
+		return freeCount;
+	}
+
+	/**
+	 * Add a reference to the message if it is a {@link PooledMessage}.
+	 *
+	 * @param message
+	 */
+	public static void retain(Message message) {
+		if (message instanceof PooledMessage) {
+			((PooledMessage) message).retain();
+		}
+	}
+
+	/**
+	 * Remove a reference from the message if it is a {@link PooledMessage}.
+	 *
+	 * @param message
+	 */
+	public static void release(Message message) {
+		if (message instanceof PooledMessage) {
+			((PooledMessage) message).release();
+		}
+	}
+
+	/**
+	 * Track the messages acquired from now on until they are recycled. Disabling it forgets the tracked ones.
+	 *
+	 * @param enabled
+	 */
+	public static void setLeakDetectionEnabled(boolean enabled) {
+		leakDetectionEnabled = enabled;
+		synchronized (unreleasedMessages) {
+			unreleasedMessages.clear();
+		}
+	}
+
+	public static boolean isLeakDetectionEnabled() {
+		return leakDetectionEnabled;
+	}
+
+	/**
+	 * Returns the messages acquired while the leak detection is enabled and not released yet.
+	 */
+	public static List<Message> getLeakedMessages() {
+		synchronized (unreleasedMessages) {
+			return new ArrayList<Message>(unreleasedMessages);
+		}
+	}
+
+}
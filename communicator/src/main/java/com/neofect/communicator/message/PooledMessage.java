@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A message which is recycled by its {@link MessagePool} when the last reference is released, so a stream
+ * of sensor messages allocates no message in the steady state. A message from the pool has one reference
+ * owned by the {@link com.neofect.communicator.Controller} which decoded it. It releases the reference after
+ * the callbacks and the device, and every listener delivery holds its own reference until delivered.
+ * <p>
+ * So a callback, a device or a listener which keeps the message after it returns must call {@link #retain()}
+ * and {@link #release()} when done with it. A message which isn't created by a pool is never recycled.
+ *
+ * @see MessagePool#retain(Message)
+ * @see MessagePool#release(Message)
+ */
+public abstract class PooledMessage extends MessageImpl {
+
+	private final AtomicInteger referenceCount = new AtomicInteger(1);
+	private MessagePool<?> pool;
+
+	public final int getReferenceCount() {
+		return referenceCount.get();
+	}
+
+	/**
+	 * Add a reference to keep this message from being recycled.
+	 *
+	 * @return This message.
+	 */
+	public final PooledMessage retain() {
+		while (true) {
+			int count = referenceCount.get();
+			if (count <= 0) {
+				throw new IllegalStateException("The message is already released! messageClass=" + getClass().getSimpleName());
+			}
+			if (referenceCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * Remove a reference. The message is returned to its pool when no reference is left, after which
+	 * it must not be accessed.
+	 *
+	 * @return True if the message has been recycled.
+	 */
+	public final boolean release() {
+		int count = referenceCount.decrementAndGet();
+		if (count > 0) {
+			return false;
+		}
+		if (count < 0) {
+			referenceCount.incrementAndGet();
+			throw new IllegalStateException("The message is released more than retained! messageClass=" + getClass().getSimpleName());
+		}
+		MessagePool<?> pool = this.pool;
+		this.pool = null;
+		if (pool != null) {
+			pool.recycle(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Clear the fields set by the decoding before the message is reused. Called when the message is
+	 * returned to the pool.
+	 */
+	protected void reset() {
+	}
+
+	void onAcquired(MessagePool<?> pool) {
+		this.pool = pool;
+		referenceCount.set(1);
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+/**
+ * A message encoded once in advance. It is written as is by {@link com.neofect.communicator.Connection#sendMessage(Message)},
+ * so it suits the messages which are sent repeatedly without change, e.g. keep-alives.
+ */
+public final class PreparedMessage implements Message {
+
+	private final Message message;
+	private final byte[] encodedMessage;
+
+	private PreparedMessage(Message message, byte[] encodedMessage) {
+		this.message = message;
+		this.encodedMessage = encodedMessage;
+	}
+
+	/**
+	 * Encode the message by the encoder. The encoder must be the same as the one of the controller the message is sent by.
+	 *
+	 * @param encoder
+	 * @param message
+	 * @return
+	 */
+	public static PreparedMessage prepare(MessageEncoder encoder, Message message) {
+		if (message instanceof PreparedMessage) {
+			throw new IllegalArgumentException("The message is already prepared!");
+		}
+		return new PreparedMessage(message, encoder.encodeMessageToArray(message));
+	}
+
+	public Message getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns the encoded bytes. The array is shared, so it must not be modified.
+	 */
+	public byte[] getEncodedMessage() {
+		return encodedMessage;
+	}
+
+	@Override
+	public String getDescription() {
+		return message.getDescription();
+	}
+
+	@Override
+	public byte[] encodePayload() {
+		return message.encodePayload();
+	}
+
+	@Override
+	public void decodePayload(byte[] data, int startIndex, int length) {
+		throw new UnsupportedOperationException("A prepared message is only for sending.");
+	}
+
+}
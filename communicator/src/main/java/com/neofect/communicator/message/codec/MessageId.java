@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the ID of a message class. For the message classes with this annotation in a package,
+ * the annotation processor in <code>communicator-compiler</code> generates
+ * <code>GeneratedMessageClassMapper</code> in the package, which is an {@link com.neofect.communicator.message.IndexedMessageClassMapper}
+ * with the IDs registered and the message factories created without reflection.
+ * <p>
+ * All the message IDs in a package must have the same length.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface MessageId {
+
+	/**
+	 * The message ID packed in big-endian order, e.g. 0x0102 for the ID bytes { 0x01, 0x02 }.
+	 */
+	int value();
+
+	/**
+	 * The length of the message ID in bytes, from 1 to 4.
+	 */
+	int length() default 1;
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the position and the format of a field in the payload. For a class with the annotated fields,
+ * the annotation processor in <code>communicator-compiler</code> generates <code>&lt;ClassName&gt;Codec</code>
+ * in the same package, which decodes and encodes the fields without reflection or temporary objects.
+ * The message delegates to it, e.g.
+ * <pre>
+ * public void decodePayload(byte[] data, int startIndex, int length) {
+ *     ButtonPressedMessageCodec.decode(this, data, startIndex, length);
+ * }
+ * </pre>
+ * The field must be a primitive or an array of a primitive other than boolean, and must be neither private,
+ * final nor static. The fields are laid out in the order of {@link #index()} without gaps.
+ * <p>
+ * The consecutive fields with {@link #bits()} are packed into a bit group, the first field in the most
+ * significant bits. The size of a bit group must be a multiple of 8 bits up to 64 bits, and it is in
+ * big-endian order.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface PayloadField {
+
+	/**
+	 * The order of the field in the payload.
+	 */
+	int index();
+
+	/**
+	 * The size of the field, or of an element of an array field, in bytes. It defaults to the size of
+	 * the Java type, and may be smaller to read a narrower value into a wider type.
+	 */
+	int size() default 0;
+
+	/**
+	 * The size of the field in bits if it is a part of a bit group. 0 if it is not.
+	 */
+	int bits() default 0;
+
+	Endianness order() default Endianness.BIG_ENDIAN;
+
+	/**
+	 * Whether a value narrower than the Java type is sign-extended. By default, it is zero-extended.
+	 */
+	boolean signed() default false;
+
+	/**
+	 * The fixed number of the elements of an array field.
+	 */
+	int length() default 0;
+
+	/**
+	 * The name of a preceding integral field which holds the number of the elements of an array field.
+	 * The field is written from the length of the array when encoded. An array field with neither this
+	 * nor {@link #length()} takes the rest of the payload, so it must be the last field.
+	 */
+	String lengthField() default "";
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.frame;
+
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+/**
+ * Splits frames encoded by COBS(Consistent Overhead Byte Stuffing) and delimited by a zero byte.
+ * The encoded frame is decoded into the reused scratch array. The max frame size limits the encoded
+ * length of a frame.
+ */
+public class CobsFrameDecoder extends FrameDecoder {
+
+	private static final byte[] DELIMITER = { 0 };
+
+	public CobsFrameDecoder(MessageClassMapper messageClassMapper, int messageIdOffset, int messageIdLength) {
+		super(messageClassMapper, messageIdOffset, messageIdLength);
+	}
+
+	@Override
+	protected Message decodeIncrementally(ByteRingBuffer inputBuffer) {
+		while (true) {
+			int encodedLength = findDelimiter(inputBuffer, DELIMITER);
+			if (encodedLength < 0) {
+				return null;
+			} else if (encodedLength == 0) {
+				inputBuffer.consume(1);
+				continue;
+			}
+
+			byte[] frame = getScratch(encodedLength);
+			inputBuffer.readWithoutConsume(frame, encodedLength);
+			inputBuffer.consume(encodedLength + 1);
+			int frameLength = decode(frame, encodedLength);
+			if (frameLength < 0) {
+				discardFrame("Invalid COBS code!");
+				continue;
+			}
+			Message message = decodeFrame(frame, frameLength);
+			if (message != null) {
+				return message;
+			}
+		}
+	}
+
+	/**
+	 * Decode the data in place. The decoded data is never longer than the encoded one.
+	 *
+	 * @return The length of the decoded data, or -1 if the data is invalid.
+	 */
+	static int decode(byte[] data, int length) {
+		int readIndex = 0;
+		int writeIndex = 0;
+		while (readIndex < length) {
+			int code = data[readIndex++] & 0xff;
+			if (code == 0 || readIndex + code - 1 > length) {
+				return -1;
+			}
+			for (int i = 1; i < code; ++i) {
+				data[writeIndex++] = data[readIndex++];
+			}
+			if (code != 0xff && readIndex < length) {
+				data[writeIndex++] = 0;
+			}
+		}
+		return writeIndex;
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.frame;
+
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+/**
+ * Splits frames by a delimiter after each frame, e.g. a line feed. The delimiter is not a part of the frame,
+ * and empty frames are skipped.
+ */
+public class DelimiterFrameDecoder extends FrameDecoder {
+
+	private final byte[] delimiter;
+
+	public DelimiterFrameDecoder(MessageClassMapper messageClassMapper, byte[] delimiter, int messageIdOffset, int messageIdLength) {
+		super(messageClassMapper, messageIdOffset, messageIdLength);
+		if (delimiter == null || delimiter.length == 0) {
+			throw new IllegalArgumentException("Delimiter is empty!");
+		}
+		this.delimiter = delimiter.clone();
+	}
+
+	@Override
+	protected Message decodeIncrementally(ByteRingBuffer inputBuffer) {
+		while (true) {
+			int frameLength = findDelimiter(inputBuffer, delimiter);
+			if (frameLength < 0) {
+				return null;
+			} else if (frameLength == 0) {
+				inputBuffer.consume(delimiter.length);
+				continue;
+			}
+			Message message = decodeFrame(inputBuffer, frameLength, frameLength + delimiter.length);
+			if (message != null) {
+				return message;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.frame;
+
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+/**
+ * Splits frames of the same length. Set the sync pattern if the frames start with a header.
+ */
+public class FixedLengthFrameDecoder extends FrameDecoder {
+
+	private final int frameLength;
+
+	public FixedLengthFrameDecoder(MessageClassMapper messageClassMapper, int frameLength, int messageIdOffset, int messageIdLength) {
+		super(messageClassMapper, messageIdOffset, messageIdLength);
+		if (frameLength < getMinFrameLength()) {
+			throw new IllegalArgumentException("Frame length is shorter than the message ID! frameLength=" + frameLength);
+		}
+		this.frameLength = frameLength;
+	}
+
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	@Override
+	protected Message decodeIncrementally(ByteRingBuffer inputBuffer) {
+		while (true) {
+			if (!skipToSyncPattern(inputBuffer)) {
+				return null;
+			} else if (inputBuffer.getContentSize() < frameLength) {
+				require(frameLength);
+				return null;
+			}
+			Message message = decodeFrame(inputBuffer, frameLength, frameLength);
+			if (message != null) {
+				return message;
+			}
+		}
+	}
+
+}
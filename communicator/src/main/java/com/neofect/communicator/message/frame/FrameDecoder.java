@@ -0,0 +1,272 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.frame;
+
+import android.util.Log;
+
+import com.neofect.communicator.message.IncrementalMessageDecoder;
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.message.MessageDecoder;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+/**
+ * A base of the decoders which split the input into frames by a common framing rule. A frame consists of
+ * the message ID at {@link #getMessageIdOffset()}, the payload from {@link #getPayloadOffset()} and the
+ * trailer of {@link #getTrailerLength()} bytes such as a checksum. The offsets are relative to the start
+ * of the frame.
+ * <p>
+ * The message ID array and the scratch array for unescaping are reused, so no array is allocated
+ * for a frame once they are allocated. A frame longer than {@link #getMaxFrameSize()} is discarded.
+ * <p>
+ * The progress of an incomplete frame is kept between calls, e.g. the length of the data already
+ * scanned for the delimiter, so each byte is examined once however small the chunks are.
+ */
+public abstract class FrameDecoder extends IncrementalMessageDecoder {
+
+	private static final String LOG_TAG = "FrameDecoder";
+
+	public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024;
+
+	private final int messageIdOffset;
+	private final byte[] messageId;
+	private int payloadOffset;
+	private int trailerLength = 0;
+	private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	private byte[] syncPattern;
+	private long discardedFrameCount = 0;
+	private boolean discardingLongFrame = false;
+	/** True after a discard until a frame is decoded, to log only the first discard of a resync */
+	private boolean resyncing = false;
+	/** The size of the data at the head already scanned for the delimiter */
+	private int scannedLength = 0;
+	private byte[] scratch;
+
+	protected FrameDecoder(MessageClassMapper messageClassMapper, int messageIdOffset, int messageIdLength) {
+		super(messageClassMapper);
+		if (messageIdOffset < 0 || messageIdLength <= 0) {
+			throw new IllegalArgumentException("Invalid message ID position! offset=" + messageIdOffset + ", length=" + messageIdLength);
+		}
+		this.messageIdOffset = messageIdOffset;
+		this.messageId = new byte[messageIdLength];
+		this.payloadOffset = messageIdOffset + messageIdLength;
+	}
+
+	public int getMessageIdOffset() {
+		return messageIdOffset;
+	}
+
+	public int getMessageIdLength() {
+		return messageId.length;
+	}
+
+	public int getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	/**
+	 * Set the start of the payload in a frame. By default, the payload follows the message ID.
+	 *
+	 * @param payloadOffset
+	 */
+	public void setPayloadOffset(int payloadOffset) {
+		this.payloadOffset = payloadOffset;
+	}
+
+	public int getTrailerLength() {
+		return trailerLength;
+	}
+
+	/**
+	 * Set the size of the bytes at the end of a frame which are not a part of the payload.
+	 *
+	 * @param trailerLength
+	 */
+	public void setTrailerLength(int trailerLength) {
+		this.trailerLength = trailerLength;
+	}
+
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+	public void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	public byte[] getSyncPattern() {
+		return syncPattern;
+	}
+
+	/**
+	 * Set the bytes which every frame starts with. The data before it is discarded. The offsets
+	 * include the pattern. It is used by the framing rules which have no delimiter.
+	 *
+	 * @param syncPattern
+	 */
+	public void setSyncPattern(byte[] syncPattern) {
+		this.syncPattern = syncPattern;
+	}
+
+	/**
+	 * Returns how many frames have been discarded because they were malformed or too long.
+	 */
+	public long getDiscardedFrameCount() {
+		return discardedFrameCount;
+	}
+
+	/**
+	 * Returns the minimum size of a frame which has the message ID, the payload offset and the trailer.
+	 */
+	protected final int getMinFrameLength() {
+		return Math.max(messageIdOffset + messageId.length, payloadOffset) + trailerLength;
+	}
+
+	/**
+	 * Discard the data before the sync pattern.
+	 *
+	 * @param inputBuffer
+	 * @return True if the head of the buffer is the start of a frame.
+	 */
+	protected final boolean skipToSyncPattern(ByteRingBuffer inputBuffer) {
+		if (syncPattern == null) {
+			return true;
+		}
+		return inputBuffer.skipTo(syncPattern);
+	}
+
+	protected final void discardFrame(String reason) {
+		discardFrame(reason, -1);
+	}
+
+	/**
+	 * Count a discarded frame. Only the first discard until a frame is decoded again is logged, since
+	 * resynchronizing on a corrupt stream may discard a frame for each byte.
+	 *
+	 * @param reason
+	 * @param length The length of the discarded frame, or -1 if unknown.
+	 */
+	protected final void discardFrame(String reason, long length) {
+		++discardedFrameCount;
+		if (resyncing) {
+			return;
+		}
+		resyncing = true;
+		Log.w(LOG_TAG, "discardFrame: " + reason + (length < 0 ? "" : " length=" + length) + ", maxFrameSize=" + maxFrameSize
+				+ ". The following discards are not logged until a frame is decoded. discardedFrameCount=" + discardedFrameCount);
+	}
+
+	/**
+	 * Find the delimiter which ends the frame at the head of the buffer, resuming from the data scanned
+	 * by the last call. If the frame is longer than the max frame size, the data is discarded until
+	 * the next delimiter.
+	 *
+	 * @param inputBuffer
+	 * @param delimiter
+	 * @return The length of the frame before the delimiter, or -1 if the delimiter is not received yet.
+	 */
+	protected final int findDelimiter(ByteRingBuffer inputBuffer, byte[] delimiter) {
+		while (true) {
+			int fromIndex = Math.max(0, scannedLength - (delimiter.length - 1));
+			int index = delimiter.length == 1 ? inputBuffer.indexOf(delimiter[0], fromIndex) : inputBuffer.indexOf(delimiter, fromIndex);
+			if (index < 0) {
+				// Keep the bytes which may be the beginning of the delimiter
+				int discardableSize = inputBuffer.getContentSize() - (delimiter.length - 1);
+				if (!discardingLongFrame && discardableSize > maxFrameSize) {
+					discardingLongFrame = true;
+					discardFrame("Frame is too long!");
+				}
+				if (discardingLongFrame && discardableSize > 0) {
+					inputBuffer.consume(discardableSize);
+				}
+				scannedLength = inputBuffer.getContentSize();
+				require(scannedLength + 1);
+				return -1;
+			}
+			scannedLength = 0;
+			if (discardingLongFrame || index > maxFrameSize) {
+				if (!discardingLongFrame) {
+					discardFrame("Frame is too long!", index);
+				}
+				discardingLongFrame = false;
+				inputBuffer.consume(index + delimiter.length);
+				continue;
+			}
+			return index;
+		}
+	}
+
+	@Override
+	protected void resetState() {
+		super.resetState();
+		discardingLongFrame = false;
+		resyncing = false;
+		scannedLength = 0;
+	}
+
+	/**
+	 * Returns an array of at least the given size which is reused for every frame.
+	 */
+	protected final byte[] getScratch(int size) {
+		if (scratch == null || scratch.length < size) {
+			scratch = new byte[scratch == null ? size : Math.max(size, scratch.length * 2)];
+		}
+		return scratch;
+	}
+
+	/**
+	 * Decode the frame at the head of the buffer and consume it even if failed. A frame with an unknown
+	 * message ID or a corrupt payload is dropped without an exception and counted by {@link MessageDecoder}.
+	 *
+	 * @param inputBuffer
+	 * @param frameLength
+	 * @param consumeLength The size to consume, which may include the delimiter after the frame.
+	 * @return The decoded message, or null if the frame is discarded.
+	 */
+	protected final Message decodeFrame(ByteRingBuffer inputBuffer, int frameLength, int consumeLength) {
+		try {
+			if (frameLength < getMinFrameLength()) {
+				discardFrame("Frame is too short!", frameLength);
+				return null;
+			}
+			resyncing = false;
+			for (int i = 0; i < messageId.length; ++i) {
+				messageId[i] = inputBuffer.peek(messageIdOffset + i);
+			}
+			return tryDecodeMessagePayload(messageId, inputBuffer.slice(payloadOffset, frameLength - payloadOffset - trailerLength));
+		} finally {
+			inputBuffer.consume(consumeLength);
+		}
+	}
+
+	/**
+	 * Decode the frame in the given array, e.g. the one unescaped into {@link #getScratch(int)}.
+	 *
+	 * @param frame
+	 * @param frameLength
+	 * @return The decoded message, or null if the frame is discarded.
+	 */
+	protected final Message decodeFrame(byte[] frame, int frameLength) {
+		if (frameLength < getMinFrameLength()) {
+			discardFrame("Frame is too short!", frameLength);
+			return null;
+		}
+		resyncing = false;
+		System.arraycopy(frame, messageIdOffset, messageId, 0, messageId.length);
+		return tryDecodeMessagePayload(messageId, frame, payloadOffset, frameLength - payloadOffset - trailerLength);
+	}
+
+}
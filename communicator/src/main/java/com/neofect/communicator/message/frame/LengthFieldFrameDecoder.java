@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.frame;
+
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+import java.nio.ByteOrder;
+
+/**
+ * Splits frames by a length field at a fixed offset. The length of a frame is
+ * <pre>lengthFieldOffset + lengthFieldLength + (value of the length field) + lengthAdjustment</pre>
+ * so the length field counts the bytes after itself when the adjustment is 0. If the length field counts
+ * the whole frame, pass -(lengthFieldOffset + lengthFieldLength) as the adjustment.
+ * <p>
+ * An invalid length discards a byte and the decoder looks for the next frame from there,
+ * so setting the sync pattern is recommended.
+ */
+public class LengthFieldFrameDecoder extends FrameDecoder {
+
+	private final int lengthFieldOffset;
+	private final int lengthFieldLength;
+	private final ByteOrder byteOrder;
+	private final int lengthAdjustment;
+	/** The length of the frame at the head whose header is already parsed, or -1 */
+	private int pendingFrameLength = -1;
+
+	/**
+	 * The payload starts after both of the message ID and the length field by default.
+	 *
+	 * @param messageClassMapper
+	 * @param lengthFieldOffset
+	 * @param lengthFieldLength From 1 to 4 bytes.
+	 * @param byteOrder
+	 * @param lengthAdjustment
+	 * @param messageIdOffset
+	 * @param messageIdLength
+	 */
+	public LengthFieldFrameDecoder(MessageClassMapper messageClassMapper, int lengthFieldOffset, int lengthFieldLength, ByteOrder byteOrder,
+			int lengthAdjustment, int messageIdOffset, int messageIdLength) {
+		super(messageClassMapper, messageIdOffset, messageIdLength);
+		if (lengthFieldOffset < 0 || lengthFieldLength < 1 || lengthFieldLength > 4) {
+			throw new IllegalArgumentException("Invalid length field! offset=" + lengthFieldOffset + ", length=" + lengthFieldLength);
+		}
+		this.lengthFieldOffset = lengthFieldOffset;
+		this.lengthFieldLength = lengthFieldLength;
+		this.byteOrder = byteOrder;
+		this.lengthAdjustment = lengthAdjustment;
+		setPayloadOffset(Math.max(messageIdOffset + messageIdLength, lengthFieldOffset + lengthFieldLength));
+	}
+
+	@Override
+	protected Message decodeIncrementally(ByteRingBuffer inputBuffer) {
+		final int headerLength = lengthFieldOffset + lengthFieldLength;
+		while (true) {
+			if (pendingFrameLength < 0) {
+				if (!skipToSyncPattern(inputBuffer)) {
+					return null;
+				} else if (inputBuffer.getContentSize() < headerLength) {
+					require(headerLength);
+					return null;
+				}
+
+				long frameLength = headerLength + inputBuffer.peekUnsigned(lengthFieldOffset, lengthFieldLength, byteOrder) + lengthAdjustment;
+				if (frameLength < Math.max(headerLength, getMinFrameLength()) || frameLength > getMaxFrameSize()) {
+					discardFrame("Invalid frame length!", frameLength);
+					inputBuffer.consume(1);
+					continue;
+				}
+				pendingFrameLength = (int) frameLength;
+			}
+			if (inputBuffer.getContentSize() < pendingFrameLength) {
+				require(pendingFrameLength);
+				return null;
+			}
+
+			int frameLength = pendingFrameLength;
+			pendingFrameLength = -1;
+			Message message = decodeFrame(inputBuffer, frameLength, frameLength);
+			if (message != null) {
+				return message;
+			}
+		}
+	}
+
+	@Override
+	protected void resetState() {
+		super.resetState();
+		pendingFrameLength = -1;
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.frame;
+
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+/**
+ * Splits frames encoded by SLIP(RFC 1055). The escaped frame is unescaped into the reused scratch array.
+ * The max frame size limits the escaped length of a frame.
+ */
+public class SlipFrameDecoder extends FrameDecoder {
+
+	public static final byte END = (byte) 0xc0;
+	public static final byte ESC = (byte) 0xdb;
+	public static final byte ESC_END = (byte) 0xdc;
+	public static final byte ESC_ESC = (byte) 0xdd;
+
+	private static final byte[] DELIMITER = { END };
+
+	public SlipFrameDecoder(MessageClassMapper messageClassMapper, int messageIdOffset, int messageIdLength) {
+		super(messageClassMapper, messageIdOffset, messageIdLength);
+	}
+
+	@Override
+	protected Message decodeIncrementally(ByteRingBuffer inputBuffer) {
+		while (true) {
+			int escapedLength = findDelimiter(inputBuffer, DELIMITER);
+			if (escapedLength < 0) {
+				return null;
+			} else if (escapedLength == 0) {
+				inputBuffer.consume(1);
+				continue;
+			}
+
+			byte[] frame = getScratch(escapedLength);
+			inputBuffer.readWithoutConsume(frame, escapedLength);
+			inputBuffer.consume(escapedLength + 1);
+			int frameLength = unescape(frame, escapedLength);
+			if (frameLength < 0) {
+				discardFrame("Invalid escape sequence!");
+				continue;
+			}
+			Message message = decodeFrame(frame, frameLength);
+			if (message != null) {
+				return message;
+			}
+		}
+	}
+
+	/**
+	 * Unescape the data in place.
+	 *
+	 * @return The length of the unescaped data, or -1 if the data has an invalid escape sequence.
+	 */
+	static int unescape(byte[] data, int length) {
+		int writeIndex = 0;
+		for (int readIndex = 0; readIndex < length; ++readIndex) {
+			byte value = data[readIndex];
+			if (value == ESC) {
+				if (++readIndex == length) {
+					return -1;
+				}
+				value = data[readIndex];
+				if (value == ESC_END) {
+					value = END;
+				} else if (value == ESC_ESC) {
+					value = ESC;
+				} else {
+					return -1;
+				}
+			}
+			data[writeIndex++] = value;
+		}
+		return writeIndex;
+	}
+
+}
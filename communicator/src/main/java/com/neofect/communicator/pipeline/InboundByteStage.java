@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.pipeline;
+
+/**
+ * A stage which gets the data read from the device before it is decoded, e.g. to decompress it or
+ * to verify a checksum.
+ */
+public interface InboundByteStage extends PipelineStage {
+
+	/**
+	 * Call {@link PipelineContext#readBytes(byte[], int, int)} to pass the data, as is or transformed, to
+	 * the next stage. The data is dropped if not passed. The array is valid only during this call.
+	 *
+	 * @param context
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	void readBytes(PipelineContext context, byte[] data, int offset, int length);
+
+}
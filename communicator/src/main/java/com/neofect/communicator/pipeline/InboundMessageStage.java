@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.pipeline;
+
+import com.neofect.communicator.message.Message;
+
+/**
+ * A stage which gets the decoded messages before the controller processes them.
+ */
+public interface InboundMessageStage extends PipelineStage {
+
+	/**
+	 * Call {@link PipelineContext#readMessage(Message)} to pass the message to the next stage. The message
+	 * is dropped if not passed. A stage which passes a {@link com.neofect.communicator.message.PooledMessage}
+	 * after this returns must retain it and release it after passing.
+	 *
+	 * @param context
+	 * @param message
+	 */
+	void readMessage(PipelineContext context, Message message);
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.pipeline;
+
+/**
+ * A stage which gets the encoded data before it is written to the device, e.g. to compress it or
+ * to append a checksum.
+ */
+public interface OutboundByteStage extends PipelineStage {
+
+	/**
+	 * Call {@link PipelineContext#writeBytes(byte[], int, int)} to pass the data, as is or transformed, to
+	 * the previous stage, which ends with the connection. The data is dropped if not passed.
+	 * <p>
+	 * The array must not be modified, since it may be shared by every send of the same message, e.g. the
+	 * encoded bytes of a {@link com.neofect.communicator.message.PreparedMessage} or of the encoded message
+	 * cache. A stage which transforms the data must copy it into its own array first. The array may also be
+	 * reused for the next message, so it is valid only during this call.
+	 *
+	 * @param context
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	void writeBytes(PipelineContext context, byte[] data, int offset, int length);
+
+}
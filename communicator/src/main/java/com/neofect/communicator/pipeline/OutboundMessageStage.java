@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.pipeline;
+
+import com.neofect.communicator.message.Message;
+
+/**
+ * A stage which gets the messages sent by {@link com.neofect.communicator.Connection#sendMessage(Message)}
+ * before they are encoded, e.g. to throttle or batch them.
+ */
+public interface OutboundMessageStage extends PipelineStage {
+
+	/**
+	 * Call {@link PipelineContext#writeMessage(Message)} to pass the message to the previous stage, which
+	 * ends with the encoder. The message is dropped if not passed.
+	 *
+	 * @param context
+	 * @param message
+	 */
+	void writeMessage(PipelineContext context, Message message);
+
+}
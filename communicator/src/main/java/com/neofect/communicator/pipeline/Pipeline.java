@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.pipeline;
+
+import com.neofect.communicator.Connection;
+import com.neofect.communicator.message.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ordered chain of named stages of a connection, which process the data read from the device and
+ * the messages sent to it on the thread of the caller, i.e. the read thread of the connection for the
+ * inbound data and the sending thread for the outbound data.
+ * <p>
+ * The inbound bytes go through the {@link InboundByteStage}s into the ring buffer, and the decoded messages
+ * go through the {@link InboundMessageStage}s to the controller. The outbound messages go backward through
+ * the {@link OutboundMessageStage}s to the encoder, and the encoded data through the {@link OutboundByteStage}s
+ * to {@link Connection#write(byte[], int, int)}.
+ * <p>
+ * The stages are kept in an immutable snapshot replaced on every change, so the data flows without
+ * locking while another thread changes the stages. Set up the stages in
+ * {@link com.neofect.communicator.Controller#initPipeline(Connection, Pipeline)}.
+ */
+public final class Pipeline {
+
+	/**
+	 * Where the data leaves the pipeline. Implemented by the connection.
+	 */
+	public interface Endpoint {
+		void onBytesRead(byte[] data, int offset, int length);
+		void onMessageRead(Message message);
+		void onMessageWrite(Message message);
+		void onBytesWrite(byte[] data, int offset, int length);
+	}
+
+	private static class Chain {
+		final PipelineContext[] contexts;
+		PipelineContext firstInboundByte;
+		PipelineContext firstInboundMessage;
+		PipelineContext lastOutboundMessage;
+		PipelineContext lastOutboundByte;
+
+		Chain(PipelineContext[] contexts) {
+			this.contexts = contexts;
+			// Link the stages of each direction, skipping the stages of the other directions
+			for (int i = contexts.length - 1; i >= 0; --i) {
+				PipelineContext context = contexts[i];
+				context.nextInboundByte = firstInboundByte;
+				context.nextInboundMessage = firstInboundMessage;
+				if (context.getStage() instanceof InboundByteStage) {
+					firstInboundByte = context;
+				}
+				if (context.getStage() instanceof InboundMessageStage) {
+					firstInboundMessage = context;
+				}
+			}
+			for (PipelineContext context : contexts) {
+				context.previousOutboundMessage = lastOutboundMessage;
+				context.previousOutboundByte = lastOutboundByte;
+				if (context.getStage() instanceof OutboundMessageStage) {
+					lastOutboundMessage = context;
+				}
+				if (context.getStage() instanceof OutboundByteStage) {
+					lastOutboundByte = context;
+				}
+			}
+		}
+	}
+
+	private final Connection connection;
+	private final Endpoint endpoint;
+	private final Object lock = new Object();
+	private volatile Chain chain = new Chain(new PipelineContext[0]);
+
+	public Pipeline(Connection connection, Endpoint endpoint) {
+		this.connection = connection;
+		this.endpoint = endpoint;
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	Endpoint getEndpoint() {
+		return endpoint;
+	}
+
+	public void addFirst(String name, PipelineStage stage) {
+		synchronized (lock) {
+			insert(0, name, stage);
+		}
+	}
+
+	public void addLast(String name, PipelineStage stage) {
+		synchronized (lock) {
+			insert(chain.contexts.length, name, stage);
+		}
+	}
+
+	public void addBefore(String baseName, String name, PipelineStage stage) {
+		synchronized (lock) {
+			insert(indexOf(baseName, true), name, stage);
+		}
+	}
+
+	public void addAfter(String baseName, String name, PipelineStage stage) {
+		synchronized (lock) {
+			insert(indexOf(baseName, true) + 1, name, stage);
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return The removed stage, or null if not found.
+	 */
+	public PipelineStage remove(String name) {
+		synchronized (lock) {
+			int index = indexOf(name, false);
+			if (index < 0) {
+				return null;
+			}
+			PipelineContext[] contexts = chain.contexts;
+			PipelineStage stage = contexts[index].getStage();
+			List<PipelineContext> newContexts = copyContexts(contexts);
+			newContexts.remove(index);
+			chain = new Chain(newContexts.toArray(new PipelineContext[newContexts.size()]));
+			return stage;
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return The stage of the name, or null if not found.
+	 */
+	public PipelineStage get(String name) {
+		for (PipelineContext context : chain.contexts) {
+			if (context.getName().equals(name)) {
+				return context.getStage();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the names of the stages from the first.
+	 */
+	public List<String> getNames() {
+		List<String> names = new ArrayList<>();
+		for (PipelineContext context : chain.contexts) {
+			names.add(context.getName());
+		}
+		return names;
+	}
+
+	public boolean hasInboundByteStages() {
+		return chain.firstInboundByte != null;
+	}
+
+	public boolean hasInboundMessageStages() {
+		return chain.firstInboundMessage != null;
+	}
+
+	public boolean hasOutboundByteStages() {
+		return chain.lastOutboundByte != null;
+	}
+
+	/**
+	 * Pass the data read from the device to the first {@link InboundByteStage}.
+	 */
+	public void readBytes(byte[] data, int offset, int length) {
+		PipelineContext.readBytes(chain.firstInboundByte, this, data, offset, length);
+	}
+
+	/**
+	 * Pass the decoded message to the first {@link InboundMessageStage}.
+	 */
+	public void readMessage(Message message) {
+		PipelineContext.readMessage(chain.firstInboundMessage, this, message);
+	}
+
+	/**
+	 * Pass the message to send to the last {@link OutboundMessageStage}.
+	 */
+	public void writeMessage(Message message) {
+		PipelineContext.writeMessage(chain.lastOutboundMessage, this, message);
+	}
+
+	/**
+	 * Pass the encoded data to the last {@link OutboundByteStage}.
+	 */
+	public void writeBytes(byte[] data, int offset, int length) {
+		PipelineContext.writeBytes(chain.lastOutboundByte, this, data, offset, length);
+	}
+
+	private void insert(int index, String name, PipelineStage stage) {
+		if (name == null || stage == null) {
+			throw new IllegalArgumentException("Name and stage must not be null!");
+		}
+		if (!(stage instanceof InboundByteStage || stage instanceof InboundMessageStage
+				|| stage instanceof OutboundMessageStage || stage instanceof OutboundByteStage)) {
+			throw new IllegalArgumentException("The stage processes nothing! stage=" + stage.getClass().getName());
+		}
+		if (indexOf(name, false) >= 0) {
+			throw new IllegalArgumentException("Duplicate stage name! name=" + name);
+		}
+		List<PipelineContext> newContexts = copyContexts(chain.contexts);
+		newContexts.add(index, new PipelineContext(this, name, stage));
+		chain = new Chain(newContexts.toArray(new PipelineContext[newContexts.size()]));
+	}
+
+	/**
+	 * The contexts are created again, so the stages holding the old contexts keep the old links.
+	 */
+	private List<PipelineContext> copyContexts(PipelineContext[] contexts) {
+		List<PipelineContext> newContexts = new ArrayList<>(contexts.length + 1);
+		for (PipelineContext context : contexts) {
+			newContexts.add(new PipelineContext(this, context.getName(), context.getStage()));
+		}
+		return newContexts;
+	}
+
+	private int indexOf(String name, boolean required) {
+		PipelineContext[] contexts = chain.contexts;
+		for (int i = 0; i < contexts.length; ++i) {
+			if (contexts[i].getName().equals(name)) {
+				return i;
+			}
+		}
+		if (required) {
+			throw new IllegalArgumentException("No stage of the name! name=" + name);
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.pipeline;
+
+import com.neofect.communicator.Connection;
+import com.neofect.communicator.message.Message;
+
+/**
+ * The position of a stage in a {@link Pipeline}, through which the stage passes the data to its neighbors.
+ * The inbound data flows from the first stage to the last, and the outbound data from the last to the first.
+ * The contexts are created again whenever the pipeline is changed, so a stage shouldn't keep its context.
+ */
+public final class PipelineContext {
+
+	private final Pipeline pipeline;
+	private final String name;
+	private final PipelineStage stage;
+
+	PipelineContext nextInboundByte;
+	PipelineContext nextInboundMessage;
+	PipelineContext previousOutboundMessage;
+	PipelineContext previousOutboundByte;
+
+	PipelineContext(Pipeline pipeline, String name, PipelineStage stage) {
+		this.pipeline = pipeline;
+		this.name = name;
+		this.stage = stage;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public PipelineStage getStage() {
+		return stage;
+	}
+
+	public Pipeline getPipeline() {
+		return pipeline;
+	}
+
+	public Connection getConnection() {
+		return pipeline.getConnection();
+	}
+
+	/**
+	 * Pass the data read to the next {@link InboundByteStage}, or to the ring buffer of the connection.
+	 */
+	public void readBytes(byte[] data, int offset, int length) {
+		readBytes(nextInboundByte, pipeline, data, offset, length);
+	}
+
+	/**
+	 * Pass the decoded message to the next {@link InboundMessageStage}, or to the controller.
+	 */
+	public void readMessage(Message message) {
+		readMessage(nextInboundMessage, pipeline, message);
+	}
+
+	/**
+	 * Pass the message to the previous {@link OutboundMessageStage}, or to the encoder.
+	 */
+	public void writeMessage(Message message) {
+		writeMessage(previousOutboundMessage, pipeline, message);
+	}
+
+	/**
+	 * Pass the encoded data to the previous {@link OutboundByteStage}, or to the connection.
+	 */
+	public void writeBytes(byte[] data, int offset, int length) {
+		writeBytes(previousOutboundByte, pipeline, data, offset, length);
+	}
+
+	static void readBytes(PipelineContext context, Pipeline pipeline, byte[] data, int offset, int length) {
+		if (context == null) {
+			pipeline.getEndpoint().onBytesRead(data, offset, length);
+		} else {
+			((InboundByteStage) context.stage).readBytes(context, data, offset, length);
+		}
+	}
+
+	static void readMessage(PipelineContext context, Pipeline pipeline, Message message) {
+		if (context == null) {
+			pipeline.getEndpoint().onMessageRead(message);
+		} else {
+			((InboundMessageStage) context.stage).readMessage(context, message);
+		}
+	}
+
+	static void writeMessage(PipelineContext context, Pipeline pipeline, Message message) {
+		if (context == null) {
+			pipeline.getEndpoint().onMessageWrite(message);
+		} else {
+			((OutboundMessageStage) context.stage).writeMessage(context, message);
+		}
+	}
+
+	static void writeBytes(PipelineContext context, Pipeline pipeline, byte[] data, int offset, int length) {
+		if (context == null) {
+			pipeline.getEndpoint().onBytesWrite(data, offset, length);
+		} else {
+			((OutboundByteStage) context.stage).writeBytes(context, data, offset, length);
+		}
+	}
+
+}
@@ -18,8 +18,6 @@ public class TcpConnection extends Connection {
 
 	private static final String LOG_TAG = "TcpConnection";
 
-	private static final int BUFFER_SIZE = 1024;
-
 	private Executor executor = Executors.newSingleThreadExecutor();
 	private String ip;
 	private int port;
@@ -27,7 +25,6 @@ public class TcpConnection extends Connection {
 	private Socket socket;
 	private OutputStream outputStream;
 	private InputStream inputStream;
-	private byte[] buffer = new byte[BUFFER_SIZE];
 
 	public TcpConnection(String ip, int port, String endpointName, Controller<? extends Device> controller) {
 		super(ConnectionType.TCP, controller);
@@ -77,16 +74,13 @@ public class TcpConnection extends Connection {
 
 	private void startReadThread() {
 		new Thread(() -> {
-			while (inputStream != null) {
+			InputStream inputStream;
+			while ((inputStream = this.inputStream) != null) {
 				try {
-					int numberOfReadBytes = inputStream.read(buffer, 0, buffer.length);
-					if (numberOfReadBytes < 0) {
+					if (handleReadData(inputStream) < 0) {
 						onDisconnected();
 						return;
 					}
-					byte[] readData = new byte[numberOfReadBytes];
-					System.arraycopy(buffer, 0, readData, 0, numberOfReadBytes);
-					handleReadData(readData);
 				} catch (IOException e) {
 					Log.d(LOG_TAG, "run: IOException on read() '" + getDeviceIdentifier() + "'", e);
 					onDisconnected();
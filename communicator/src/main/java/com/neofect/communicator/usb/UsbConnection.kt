@@ -16,9 +16,8 @@ import com.neofect.communicator.Connection
 import com.neofect.communicator.ConnectionType
 import com.neofect.communicator.Controller
 import com.neofect.communicator.Device
-import com.neofect.communicator.util.ByteRingBuffer
+import com.neofect.communicator.util.SpscByteRingBuffer
 import java.io.IOException
-import java.nio.ByteBuffer
 
 /**
  * Created by jhchoi on 2022/07/08
@@ -35,10 +34,10 @@ class UsbConnection(
 
     private var readDataHandlerThread: Thread? = null
 
-    private val readDataCache = ByteRingBuffer(
-        2 * 1024 * 1024 // Maximum 2MB
-    )
-    private val cacheLock = Object()
+    // Published by the serial I/O thread and consumed by ReadDataHandlerThread without locking.
+    // It is allocated up front, so it is kept small. A chunk which doesn't fit is dropped as a whole
+    // and the decoder resynchronizes at the gap, so it needn't hold as much as the ring buffer.
+    private val readDataQueue = SpscByteRingBuffer(minOf(READ_QUEUE_CAPACITY, ringBuffer.maxCapacity))
 
     override fun connect() {
         registerReceiver()
@@ -202,6 +201,13 @@ class UsbConnection(
         }
     }
 
+    /**
+     * The data is written before this returns, so a whole array is not copied.
+     */
+    override fun write(data: ByteArray, offset: Int, length: Int) {
+        write(if (offset == 0 && length == data.size) data else data.copyOfRange(offset, offset + length))
+    }
+
     override fun getDeviceIdentifier(): String = device.deviceName
 
     override fun getDeviceName(): String =
@@ -218,21 +224,10 @@ class UsbConnection(
             Log.d(LOG_TAG, "ReadDataHandlerThread start.")
             runCatching {
                 android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO)
-                var bufferCache = ByteBuffer.allocate(2 * 1024 * 1024).array()
                 while (isConnected) {
-                    val contentSize = synchronized(cacheLock) {
-                        val contentSize = readDataCache.contentSize
-                        if (contentSize > bufferCache.size) {
-                            Log.d(LOG_TAG, "handle thread buffer alloc. size: $contentSize")
-                            bufferCache = ByteBuffer.allocate(contentSize).array()
-                        }
-                        readDataCache.read(bufferCache, contentSize)
-                        contentSize
+                    if (handleReadData(readDataQueue) == 0) {
+                        sleep(1)
                     }
-                    if (bufferCache.isNotEmpty()) {
-                        handleReadData(bufferCache, contentSize)
-                    }
-                    sleep(1)
                 }
             }.onFailure {
                 it.printStackTrace()
@@ -243,11 +238,8 @@ class UsbConnection(
 
     private val inputOutputManagerListener = object : SimpleSerialIoManager.Listener {
         override fun onNewData(data: ByteArray, length: Int) {
-            if (data != null) {
-                synchronized(cacheLock) {
-                    readDataCache.put(data, length)
-                }
-            }
+            // A chunk which doesn't fit is dropped and counted, and the decoder resynchronizes at the gap
+            readDataQueue.offer(data, length)
         }
 
         override fun onRunError(e: Exception?) {
@@ -262,5 +254,6 @@ class UsbConnection(
         private val ACTION_USB_PERMISSION = "com.neofect.communicator.USB_PERMISSION"
         private const val WRITE_TIMEOUT_MILLIS = 200
         private const val READ_BUFFER_SIZE = 100
+        private const val READ_QUEUE_CAPACITY = 64 * 1024
     }
 }
\ No newline at end of file
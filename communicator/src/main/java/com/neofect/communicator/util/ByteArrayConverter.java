@@ -136,33 +136,23 @@ public class ByteArrayConverter {
 	 * Convert a byte array to an integer value.
 	 */
 	public static int byteArrayToInt(byte[] bytes, int startIndex, int length, ByteOrder byteOrder) {
-    	if (bytes == null) {
-		    return 0;
-	    }
-    	
-        final int newLength = Integer.SIZE / 8;
-        final byte[] newBytes = new byte[newLength];
-        
-        for (int i = 0; i < newLength; i++) {
-        	if (byteOrder == ByteOrder.BIG_ENDIAN) {
-        		if (i < newLength - length) {
-			        newBytes[i] = (byte) 0x00;
-		        } else {
-			        newBytes[i] = bytes[startIndex + i - (newLength - length)];
-		        }
-        	} else {
-        		if (i >= length) {
-			        newBytes[i] = (byte) 0x00;
-		        } else {
-			        newBytes[i] = bytes[startIndex + i];
-		        }
-        	}
-        }
-        	
-        ByteBuffer buff = ByteBuffer.wrap(newBytes);
-        buff.order(byteOrder);
-        return buff.getInt();
-    }
+		if (bytes == null) {
+			return 0;
+		}
+
+		// Shifting keeps the last 4 bytes for big-endian, and only the first 4 bytes are used for little-endian.
+		int value = 0;
+		if (byteOrder == ByteOrder.BIG_ENDIAN) {
+			for (int i = 0; i < length; ++i) {
+				value = (value << 8) | (bytes[startIndex + i] & 0xff);
+			}
+		} else {
+			for (int i = 0; i < Math.min(length, Integer.SIZE / 8); ++i) {
+				value |= (bytes[startIndex + i] & 0xff) << (i * 8);
+			}
+		}
+		return value;
+	}
 	
     /**
      * @author "wjchoi@neofect.com"
@@ -17,6 +17,14 @@ package com.neofect.communicator.util;
 
 import android.util.Log;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author neo.kim@neofect.com
  * @date Feb 8, 2015
@@ -25,14 +33,79 @@ public class ByteRingBuffer {
 
     private static final int BUFFER_DEFAULT_INIT_CAPACITY = 128;
     private static final int BUFFER_DEFAULT_MAX_CAPACITY = 2 * 1024 * 1024; // Maximum 2MB
+    private static final int FILL_EXPANSION_SIZE = 1024;
+
+    /**
+     * The internal buffer shrinks by half once its occupancy stays at or below 1 / {@value}
+     * for {@link #SHRINK_THRESHOLD_COUNT} consecutive consumptions.
+     */
+    private static final int SHRINK_OCCUPANCY_DIVISOR = 4;
+    private static final int SHRINK_THRESHOLD_COUNT = 1024;
+
+    static final int RECLAIM_NONE = 0;
+    static final int RECLAIM_COMPACT = 1;
+    static final int RECLAIM_DROP_OLDEST = 2;
+
+    /**
+     * What {@link #put} does when the data doesn't fit even after expanding the internal buffer
+     * up to the max capacity or the budget.
+     */
+    public enum OverflowPolicy {
+        /** The oldest data is overwritten by the new data. */
+        OVERWRITE_OLDEST,
+        /** The part of the new data which doesn't fit is dropped. */
+        REJECT_NEWEST,
+        /**
+         * The producer waits up to the block timeout for the consumer to make room, then the part
+         * which doesn't fit is dropped. {@link #put} and {@link #consume} must be called by different
+         * threads, synchronized on this buffer. So it can't be used for the ring buffer of a
+         * {@link com.neofect.communicator.Connection}, which is put and consumed by the same thread.
+         */
+        BLOCK,
+        /** The {@link OverflowCallback} is asked to make room, then the part which doesn't fit is dropped. */
+        CALLBACK,
+    }
+
+    public interface OverflowCallback {
+        /**
+         * Called by {@link #put} when the data doesn't fit. The callback may consume or clear the buffer to make room.
+         *
+         * @param buffer
+         * @param requiredSize The size of the data which doesn't fit.
+         */
+        void onOverflow(ByteRingBuffer buffer, int requiredSize);
+    }
 
     private byte[] buffer;
+    private boolean powerOfTwoCapacity = false;
+    private int initialCapacity;
     private int maxCapacity = BUFFER_DEFAULT_MAX_CAPACITY;
     private int contentSize = 0;
     private int headIndex = 0;
+    /** The size of the data consumed since {@link #mark()}, or -1 if not marked. */
+    private int markedSize = -1;
+    private int lowOccupancyCount = 0;
+    private int modificationCount = 0;
+    private ByteSlice slice;
+    private byte[] skipTablePattern;
+    private int[] skipTable;
+    private ByteBuffer channelView;
+    private byte[] discardBuffer;
+
+    private ByteRingBufferBudget budget;
+    private volatile int pendingReclaim = RECLAIM_NONE;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.OVERWRITE_OLDEST;
+    private OverflowCallback overflowCallback;
+    private long blockTimeoutMillis = 100;
+    private volatile int waitingProducerCount = 0;
+    private long overwrittenByteCount = 0;
+    private long rejectedByteCount = 0;
+    private boolean discontinuity = false;
 
     public ByteRingBuffer(int capacity) {
         buffer = new byte[capacity];
+        initialCapacity = capacity;
     }
 
     public ByteRingBuffer() {
@@ -44,15 +117,179 @@ public class ByteRingBuffer {
         this.maxCapacity = maxCapacity;
     }
 
+    /**
+     * If powerOfTwoCapacity is true, the index arithmetic is done by bit masking instead of integer division.
+     * The capacity is rounded up to a power of two, and the max capacity is rounded down so that the buffer
+     * doesn't grow over it, but not below the capacity.
+     *
+     * @param capacity
+     * @param maxCapacity
+     * @param powerOfTwoCapacity
+     */
+    public ByteRingBuffer(int capacity, int maxCapacity, boolean powerOfTwoCapacity) {
+        this(powerOfTwoCapacity ? roundUpToPowerOfTwo(capacity) : capacity,
+                powerOfTwoCapacity ? Math.max(roundUpToPowerOfTwo(capacity), Integer.highestOneBit(maxCapacity)) : maxCapacity);
+        this.powerOfTwoCapacity = powerOfTwoCapacity;
+    }
+
+    private static int roundUpToPowerOfTwo(int value) {
+        if (value <= 1) {
+            return 1;
+        }
+        return Math.min(Integer.highestOneBit(value - 1) << 1, 1 << 30);
+    }
+
+    public boolean isPowerOfTwoCapacity() {
+        return powerOfTwoCapacity;
+    }
+
+    public int getInitialCapacity() {
+        return initialCapacity;
+    }
+
     public int getMaxCapacity() {
         return maxCapacity;
     }
 
+    /**
+     * Returns the size of the internal buffer which is currently allocated.
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * It is rounded down to a power of two if {@link #isPowerOfTwoCapacity()}.
+     *
+     * @param maxCapacity
+     */
     public void changeMaxCapacity(int maxCapacity) {
         if (this.maxCapacity > maxCapacity) {
             throw new IllegalArgumentException("Cannot reduce max capacity!");
         }
-        this.maxCapacity = maxCapacity;
+        this.maxCapacity = powerOfTwoCapacity ? Math.max(this.maxCapacity, Integer.highestOneBit(maxCapacity)) : maxCapacity;
+    }
+
+    public ByteRingBufferBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Attach this buffer to the given budget which limits the expansion of the internal buffer.
+     * Pass null to detach it from the current budget.
+     *
+     * @param budget
+     */
+    public void setBudget(ByteRingBufferBudget budget) {
+        if (this.budget != null) {
+            this.budget.detach(this);
+        }
+        this.budget = budget;
+        if (budget != null) {
+            budget.attach(this, buffer.length);
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy must not be null!");
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Set the callback and change the overflow policy to {@link OverflowPolicy#CALLBACK}.
+     *
+     * @param overflowCallback
+     */
+    public void setOverflowCallback(OverflowCallback overflowCallback) {
+        this.overflowCallback = overflowCallback;
+        this.overflowPolicy = OverflowPolicy.CALLBACK;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * Set how long {@link #put} waits for room with {@link OverflowPolicy#BLOCK}. The default is 100 milliseconds.
+     *
+     * @param blockTimeoutMillis
+     */
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Returns the total size of the oldest data overwritten by overflow or dropped by budget pressure.
+     */
+    public long getOverwrittenByteCount() {
+        return overwrittenByteCount;
+    }
+
+    /**
+     * Returns the total size of the new data dropped by overflow.
+     */
+    public long getRejectedByteCount() {
+        return rejectedByteCount;
+    }
+
+    /**
+     * Returns true if any data has been lost by overflow since the last call of {@link #clearDiscontinuity()},
+     * which means the content is no longer continuous and a decoder needs to resynchronize.
+     */
+    public boolean hasDiscontinuity() {
+        return discontinuity;
+    }
+
+    public void clearDiscontinuity() {
+        discontinuity = false;
+    }
+
+    /**
+     * Mark that some data has been lost before it reached this buffer, e.g. dropped by a queue in front of it.
+     */
+    public void markDiscontinuity() {
+        discontinuity = true;
+    }
+
+    /**
+     * Called by {@link ByteRingBufferBudget} from another thread. The reclaim is done by the thread
+     * using this buffer on its next {@link #put} or fill, never in the middle of a decode, since dropping
+     * the oldest data moves the head under the mark.
+     */
+    void requestReclaim(int reclaim) {
+        pendingReclaim = reclaim;
+    }
+
+    private void reclaimIfRequested() {
+        int reclaim = pendingReclaim;
+        if (reclaim == RECLAIM_NONE) {
+            return;
+        }
+        pendingReclaim = RECLAIM_NONE;
+        int previousCapacity = buffer.length;
+        if (reclaim == RECLAIM_COMPACT) {
+            int capacity = Math.max(initialCapacity, getRetainedSize());
+            reallocateBuffer(powerOfTwoCapacity ? roundUpToPowerOfTwo(capacity) : capacity);
+        } else if (reclaim == RECLAIM_DROP_OLDEST) {
+            int capacity = Math.max(initialCapacity, buffer.length / 2);
+            invalidateMark();
+            if (contentSize > capacity) {
+                int droppedSize = contentSize - capacity;
+                headIndex = wrap(headIndex + droppedSize);
+                contentSize = capacity;
+                overwrittenByteCount += droppedSize;
+                discontinuity = true;
+                Log.w("ByteRingBuffer", "Dropped oldest " + droppedSize + " bytes by budget pressure.");
+            }
+            reallocateBuffer(capacity);
+        }
+        Log.i("ByteRingBuffer", "Reclaimed internal buffer size from " + previousCapacity + " to " + buffer.length + ".");
     }
 
     /**
@@ -61,21 +298,33 @@ public class ByteRingBuffer {
      * @param data
      */
     public void put(byte[] data) {
-        put(data, data.length);
+        offer(data, 0, data.length);
     }
 
     public void put(byte[] data, int dataLength) {
-        put(data, 0, dataLength);
+        offer(data, 0, dataLength);
     }
+
     public void put(byte[] data, int startPosition, int dataLength) {
+        offer(data, startPosition, dataLength);
+    }
+
+    /**
+     * Same as {@link #put(byte[], int, int)} but returns how much of the data is put.
+     *
+     * @return The size of the data put. It is less than dataLength if the rest is rejected by the overflow policy.
+     */
+    public int offer(byte[] data, int startPosition, int dataLength) {
+        reclaimIfRequested();
+
         // Check if the internal buffer has enough room for given data.
+        if (getAvailableSize() < dataLength && buffer.length < maxCapacity) {
+            expandBuffer(getRetainedSize() + dataLength);
+        }
         if (getAvailableSize() < dataLength) {
-            if (buffer.length < maxCapacity) {
-                expandBuffer(contentSize + dataLength);
-            } else {
-                Log.w("ByteRingBuffer", "Reached max capacity of internal buffer. Oldest data will be overwritten!");
-            }
+            dataLength = handleOverflow(dataLength);
         }
+        int putLength = dataLength;
 
         int dataIndex = startPosition;
         while (dataLength > 0) {
@@ -89,13 +338,193 @@ public class ByteRingBuffer {
                 copyLength = Math.min(dataLength, buffer.length - (tailIndex - buffer.length));
             }
 
-            System.arraycopy(data, dataIndex, buffer, tailIndex % buffer.length, copyLength);
+            System.arraycopy(data, dataIndex, buffer, wrap(tailIndex), copyLength);
 
             contentSize = Math.min(buffer.length, contentSize + copyLength);
-            headIndex = ((tailIndex + copyLength) - contentSize) % buffer.length;
+            headIndex = wrap((tailIndex + copyLength) - contentSize);
             dataLength -= copyLength;
             dataIndex += copyLength;
         }
+        return putLength;
+    }
+
+    /**
+     * Apply the overflow policy.
+     *
+     * @param dataLength
+     * @return The size of the data to put.
+     */
+    private int handleOverflow(int dataLength) {
+        switch (overflowPolicy) {
+            case OVERWRITE_OLDEST:
+                invalidateMark();
+                int overwrittenSize = contentSize + dataLength - buffer.length;
+                if (overwrittenSize <= 0) {
+                    return dataLength;
+                }
+                overwrittenByteCount += overwrittenSize;
+                discontinuity = true;
+                ++modificationCount;
+                Log.w("ByteRingBuffer", "Reached max capacity or budget of internal buffer. Oldest " + overwrittenSize + " bytes will be overwritten!");
+                return dataLength;
+
+            case BLOCK:
+                waitForRoom(Math.min(dataLength, buffer.length));
+                break;
+
+            case CALLBACK:
+                if (overflowCallback != null) {
+                    overflowCallback.onOverflow(this, dataLength - getAvailableSize());
+                }
+                break;
+
+            default:
+                break;
+        }
+
+        int availableSize = getAvailableSize();
+        if (availableSize >= dataLength) {
+            return dataLength;
+        }
+        rejectedByteCount += dataLength - availableSize;
+        discontinuity = true;
+        Log.w("ByteRingBuffer", "Reached max capacity or budget of internal buffer. Newest " + (dataLength - availableSize) + " bytes are rejected!");
+        return availableSize;
+    }
+
+    private void waitForRoom(int size) {
+        synchronized (this) {
+            ++waitingProducerCount;
+            try {
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                long deadline = System.nanoTime() + remainingNanos;
+                while (getAvailableSize() < size && remainingNanos > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                    remainingNanos = deadline - System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                --waitingProducerCount;
+            }
+        }
+    }
+
+    private void notifyWaitingProducer() {
+        if (waitingProducerCount > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Read data from the given stream directly into the free region of the internal buffer, without
+     * an intermediate array. This blocks as long as {@link InputStream#read(byte[], int, int)} does.
+     * The overflow policy is applied if the buffer is full, and the data read is dropped if it's rejected.
+     * <p>
+     * The internal buffer is written without any lock while blocked, so nothing else may access this
+     * buffer until this returns, even on another thread. A caller which decodes on another thread must
+     * read into its own array and {@link #put(byte[], int, int)} it under its lock instead.
+     *
+     * @param inputStream
+     * @return The size of the data put, which is 0 if the data read is rejected, or -1 if the end of the
+     *         stream has been reached. Decode the content even if it's 0, since a full buffer rejects
+     *         the data until it is consumed.
+     * @throws IOException
+     */
+    public int fillFrom(InputStream inputStream) throws IOException {
+        return fill(inputStream, null);
+    }
+
+    /**
+     * Same as {@link #fillFrom(InputStream)} but reads from a channel. It may return 0 if the channel is
+     * in non-blocking mode.
+     *
+     * @param channel
+     * @return The size of the data put, or -1 if the end of the stream has been reached.
+     * @throws IOException
+     */
+    public int fillFrom(ReadableByteChannel channel) throws IOException {
+        return fill(null, channel);
+    }
+
+    private int fill(InputStream inputStream, ReadableByteChannel channel) throws IOException {
+        reclaimIfRequested();
+        if (getAvailableSize() == 0 && buffer.length < maxCapacity) {
+            expandBuffer(getRetainedSize() + FILL_EXPANSION_SIZE);
+        }
+        if (getAvailableSize() == 0) {
+            makeRoomForFill();
+        }
+
+        if (getAvailableSize() == 0) {
+            // Keep draining the source so that it doesn't stall, dropping the data
+            if (discardBuffer == null) {
+                discardBuffer = new byte[FILL_EXPANSION_SIZE];
+            }
+            int readSize = readFromSource(inputStream, channel, discardBuffer, 0, discardBuffer.length);
+            if (readSize > 0) {
+                rejectedByteCount += readSize;
+                discontinuity = true;
+                Log.w("ByteRingBuffer", "Reached max capacity or budget of internal buffer. Newest " + readSize + " bytes are rejected!");
+                return 0;
+            }
+            return readSize;
+        }
+
+        int tailIndex = wrap(headIndex + contentSize);
+        int readSize = readFromSource(inputStream, channel, buffer, tailIndex, Math.min(getAvailableSize(), buffer.length - tailIndex));
+        if (readSize > 0) {
+            contentSize += readSize;
+        }
+        return readSize;
+    }
+
+    private void makeRoomForFill() {
+        switch (overflowPolicy) {
+            case OVERWRITE_OLDEST:
+                invalidateMark();
+                if (getAvailableSize() > 0) {
+                    break;
+                }
+                int overwrittenSize = Math.min(contentSize, FILL_EXPANSION_SIZE);
+                headIndex = wrap(headIndex + overwrittenSize);
+                contentSize -= overwrittenSize;
+                overwrittenByteCount += overwrittenSize;
+                discontinuity = true;
+                ++modificationCount;
+                Log.w("ByteRingBuffer", "Reached max capacity or budget of internal buffer. Oldest " + overwrittenSize + " bytes will be overwritten!");
+                break;
+
+            case BLOCK:
+                waitForRoom(1);
+                break;
+
+            case CALLBACK:
+                if (overflowCallback != null) {
+                    overflowCallback.onOverflow(this, Math.min(buffer.length, FILL_EXPANSION_SIZE));
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private int readFromSource(InputStream inputStream, ReadableByteChannel channel, byte[] target, int offset, int length) throws IOException {
+        if (inputStream != null) {
+            return inputStream.read(target, offset, length);
+        }
+        if (target != buffer) {
+            return channel.read(ByteBuffer.wrap(target, offset, length));
+        }
+        if (channelView == null || channelView.array() != buffer) {
+            channelView = ByteBuffer.wrap(buffer);
+        }
+        channelView.limit(offset + length);
+        channelView.position(offset);
+        return channel.read(channelView);
     }
 
     private void fillByteArrayFromInternalBuffer(byte[] target, int targetIndex, int sourceIndex, int length) {
@@ -105,22 +534,65 @@ public class ByteRingBuffer {
             throw new ArrayIndexOutOfBoundsException();
         }
 
-        int localHeadIndex = (headIndex + sourceIndex) % buffer.length;
+        int localHeadIndex = wrap(headIndex + sourceIndex);
         while (length > 0) {
             int copyLength = Math.min(length, buffer.length - localHeadIndex);
             System.arraycopy(buffer, localHeadIndex, target, targetIndex, copyLength);
-            localHeadIndex = (localHeadIndex + copyLength) % buffer.length;
+            localHeadIndex = wrap(localHeadIndex + copyLength);
             length -= copyLength;
             targetIndex += copyLength;
         }
     }
 
     private void expandBuffer(int requestedSize) {
-        byte[] newBuffer = new byte[Math.min(requestedSize, maxCapacity)];
+        int capacity = Math.min(requestedSize, maxCapacity);
+        if (powerOfTwoCapacity) {
+            capacity = Math.min(roundUpToPowerOfTwo(capacity), maxCapacity);
+        }
+        if (budget != null) {
+            capacity = budget.reserve(this, capacity);
+            if (powerOfTwoCapacity) {
+                capacity = Integer.highestOneBit(capacity);
+            }
+            if (capacity <= buffer.length) {
+                budget.updateCapacity(this, buffer.length);
+                return;
+            }
+        }
+        int previousCapacity = buffer.length;
+        reallocateBuffer(capacity);
+        Log.i("ByteRingBuffer", "Expanded internal buffer size from " + previousCapacity + " to " + buffer.length + ".");
+    }
+
+    private void shrinkBufferIfIdle() {
+        if (getRetainedSize() > buffer.length / SHRINK_OCCUPANCY_DIVISOR) {
+            lowOccupancyCount = 0;
+            return;
+        }
+        if (++lowOccupancyCount < SHRINK_THRESHOLD_COUNT) {
+            return;
+        }
+        int previousCapacity = buffer.length;
+        reallocateBuffer(Math.max(initialCapacity, buffer.length / 2));
+        Log.i("ByteRingBuffer", "Shrunk internal buffer size from " + previousCapacity + " to " + buffer.length + ".");
+    }
+
+    private void reallocateBuffer(int capacity) {
+        // Keep the marked data in front of the head
+        int markedSize = Math.max(0, this.markedSize);
+        headIndex = wrap(headIndex - markedSize + buffer.length);
+        contentSize += markedSize;
+
+        byte[] newBuffer = new byte[capacity];
         fillByteArrayFromInternalBuffer(newBuffer, 0, 0, contentSize);
-        Log.i("ByteRingBuffer", "Expanded internal buffer size from " + buffer.length + " to " + newBuffer.length + ".");
         buffer = newBuffer;
-        headIndex = 0;
+        headIndex = markedSize;
+        contentSize -= markedSize;
+        lowOccupancyCount = 0;
+        ++modificationCount;
+        if (budget != null) {
+            budget.updateCapacity(this, capacity);
+        }
     }
 
     /**
@@ -132,15 +604,283 @@ public class ByteRingBuffer {
         if (size > contentSize) {
             throw new IllegalArgumentException("Not enough data to consume! remaining=" + contentSize + ", requested=" + size);
         }
-        headIndex = (headIndex + size) % buffer.length;
+        headIndex = wrap(headIndex + size);
         contentSize -= size;
+        if (markedSize >= 0) {
+            markedSize += size;
+        }
+        if (size > 0) {
+            ++modificationCount;
+            notifyWaitingProducer();
+        }
+        if (buffer.length > initialCapacity) {
+            shrinkBufferIfIdle();
+        }
     }
 
     public byte peek(int index) {
         if (index >= contentSize) {
             throw new ArrayIndexOutOfBoundsException(index + " out of " + contentSize);
         }
-        return buffer[(headIndex + index) % buffer.length];
+        return buffer[wrap(headIndex + index)];
+    }
+
+    /**
+     * Returns the index of the first occurrence of given byte value, or -1 if not found.
+     */
+    public int indexOf(byte value) {
+        return indexOf(value, 0);
+    }
+
+    /**
+     * Returns the index of the first occurrence of given byte value from the given index, or -1 if not found.
+     */
+    public int indexOf(byte value, int fromIndex) {
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        if (fromIndex >= contentSize) {
+            return -1;
+        }
+
+        // Scan the two contiguous segments of the internal buffer.
+        int start = wrap(headIndex + fromIndex);
+        int firstEnd = Math.min(buffer.length, start + contentSize - fromIndex);
+        for (int i = start; i < firstEnd; ++i) {
+            if (buffer[i] == value) {
+                return fromIndex + (i - start);
+            }
+        }
+        int firstLength = firstEnd - start;
+        int secondEnd = contentSize - fromIndex - firstLength;
+        for (int i = 0; i < secondEnd; ++i) {
+            if (buffer[i] == value) {
+                return fromIndex + firstLength + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first occurrence of given byte sequence, or -1 if not found.
+     */
+    public int indexOf(byte[] pattern) {
+        return indexOf(pattern, 0);
+    }
+
+    /**
+     * Returns the index of the first occurrence of given byte sequence from the given index, or -1 if not found.
+     * It uses Boyer-Moore-Horspool algorithm for a multi-byte pattern. The skip table is kept for the last pattern.
+     */
+    public int indexOf(byte[] pattern, int fromIndex) {
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        if (pattern.length == 0) {
+            return fromIndex <= contentSize ? fromIndex : -1;
+        } else if (pattern.length == 1) {
+            return indexOf(pattern[0], fromIndex);
+        }
+
+        int[] skip = getSkipTable(pattern);
+        int lastIndex = pattern.length - 1;
+        int position = fromIndex;
+        while (position + lastIndex < contentSize) {
+            int i = lastIndex;
+            while (byteAt(position + i) == pattern[i]) {
+                if (i == 0) {
+                    return position;
+                }
+                --i;
+            }
+            position += skip[byteAt(position + lastIndex) & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * Consume all data before the first occurrence of given byte value in one step.
+     * If not found, all data is consumed.
+     *
+     * @param value
+     * @return True if found.
+     */
+    public boolean skipTo(byte value) {
+        int index = indexOf(value);
+        if (index < 0) {
+            consume(contentSize);
+            return false;
+        }
+        consume(index);
+        return true;
+    }
+
+    /**
+     * Consume all data before the first occurrence of given byte sequence in one step.
+     * If not found, all data is consumed except the last bytes which can be a beginning of the sequence.
+     *
+     * @param pattern
+     * @return True if found.
+     */
+    public boolean skipTo(byte[] pattern) {
+        int index = indexOf(pattern);
+        if (index < 0) {
+            consume(Math.max(0, contentSize - (pattern.length - 1)));
+            return false;
+        }
+        consume(index);
+        return true;
+    }
+
+    private int wrap(int index) {
+        if (powerOfTwoCapacity) {
+            return index & (buffer.length - 1);
+        }
+        return index % buffer.length;
+    }
+
+    private byte byteAt(int index) {
+        int position = headIndex + index;
+        if (position >= buffer.length) {
+            position -= buffer.length;
+        }
+        return buffer[position];
+    }
+
+    private int[] getSkipTable(byte[] pattern) {
+        if (skipTable != null && Arrays.equals(skipTablePattern, pattern)) {
+            return skipTable;
+        }
+        if (skipTable == null) {
+            skipTable = new int[256];
+        }
+        int lastIndex = pattern.length - 1;
+        Arrays.fill(skipTable, pattern.length);
+        for (int i = 0; i < lastIndex; ++i) {
+            skipTable[pattern[i] & 0xff] = lastIndex - i;
+        }
+        skipTablePattern = pattern.clone();
+        return skipTable;
+    }
+
+    public int peekUnsignedByte(int index) {
+        return peek(index) & 0xff;
+    }
+
+    public short peekShort(int index, ByteOrder byteOrder) {
+        return (short) peekUnsigned(index, 2, byteOrder);
+    }
+
+    public int peekUnsignedShort(int index, ByteOrder byteOrder) {
+        return (int) peekUnsigned(index, 2, byteOrder);
+    }
+
+    public int peekInt(int index, ByteOrder byteOrder) {
+        return (int) peekUnsigned(index, 4, byteOrder);
+    }
+
+    public long peekUnsignedInt(int index, ByteOrder byteOrder) {
+        return peekUnsigned(index, 4, byteOrder);
+    }
+
+    public long peekLong(int index, ByteOrder byteOrder) {
+        return peekUnsigned(index, 8, byteOrder);
+    }
+
+    public float peekFloat(int index, ByteOrder byteOrder) {
+        return Float.intBitsToFloat(peekInt(index, byteOrder));
+    }
+
+    public double peekDouble(int index, ByteOrder byteOrder) {
+        return Double.longBitsToDouble(peekLong(index, byteOrder));
+    }
+
+    /**
+     * Peek an unsigned integer of given size in bytes directly from the internal buffer.
+     * The value of 8 bytes is returned as it is, so it can be negative.
+     *
+     * @param index
+     * @param size From 1 to 8.
+     * @param byteOrder
+     * @return
+     */
+    public long peekUnsigned(int index, int size, ByteOrder byteOrder) {
+        if (size < 1 || size > 8) {
+            throw new IllegalArgumentException("Size must be from 1 to 8! size=" + size);
+        } else if (index < 0 || index + size > contentSize) {
+            throw new ArrayIndexOutOfBoundsException("Possible length=" + contentSize + ", but requested index=" + index + ", size=" + size);
+        }
+
+        int position = wrap(headIndex + index);
+        long value = 0;
+        if (byteOrder == ByteOrder.BIG_ENDIAN) {
+            for (int i = 0; i < size; ++i) {
+                value = (value << 8) | (buffer[position] & 0xff);
+                if (++position == buffer.length) {
+                    position = 0;
+                }
+            }
+        } else {
+            for (int i = 0; i < size; ++i) {
+                value |= (long) (buffer[position] & 0xff) << (i * 8);
+                if (++position == buffer.length) {
+                    position = 0;
+                }
+            }
+        }
+        return value;
+    }
+
+    public byte readByte() {
+        byte result = peek(0);
+        consume(1);
+        return result;
+    }
+
+    public int readUnsignedByte() {
+        return readByte() & 0xff;
+    }
+
+    public short readShort(ByteOrder byteOrder) {
+        short result = peekShort(0, byteOrder);
+        consume(2);
+        return result;
+    }
+
+    public int readUnsignedShort(ByteOrder byteOrder) {
+        int result = peekUnsignedShort(0, byteOrder);
+        consume(2);
+        return result;
+    }
+
+    public int readInt(ByteOrder byteOrder) {
+        int result = peekInt(0, byteOrder);
+        consume(4);
+        return result;
+    }
+
+    public long readUnsignedInt(ByteOrder byteOrder) {
+        long result = peekUnsignedInt(0, byteOrder);
+        consume(4);
+        return result;
+    }
+
+    public long readLong(ByteOrder byteOrder) {
+        long result = peekLong(0, byteOrder);
+        consume(8);
+        return result;
+    }
+
+    public float readFloat(ByteOrder byteOrder) {
+        float result = peekFloat(0, byteOrder);
+        consume(4);
+        return result;
+    }
+
+    public double readDouble(ByteOrder byteOrder) {
+        double result = peekDouble(0, byteOrder);
+        consume(8);
+        return result;
     }
 
     /**
@@ -185,9 +925,80 @@ public class ByteRingBuffer {
         fillByteArrayFromInternalBuffer(result, 0, 0, length);
     }
 
+    /**
+     * Returns a read-only view over byte data of given length from the given index without copying it.
+     * The view is released once the data is consumed, cleared or moved by expansion or overwrite.
+     * The returned instance is reused by the next call of this method.
+     *
+     * @param index
+     * @param length
+     * @return
+     */
+    public ByteSlice slice(int index, int length) {
+        if (index < 0 || length < 0 || index + length > contentSize) {
+            throw new ArrayIndexOutOfBoundsException("Possible length=" + contentSize + ", but requested index=" + index + ", length=" + length);
+        }
+        if (slice == null) {
+            slice = new ByteSlice(this);
+        }
+        slice.set(buffer, wrap(headIndex + index), length, modificationCount);
+        return slice;
+    }
+
     public void clear() {
         headIndex = 0;
         contentSize = 0;
+        markedSize = -1;
+        ++modificationCount;
+        notifyWaitingProducer();
+    }
+
+    /**
+     * Mark the current head so that the data consumed after this can be restored by {@link #reset()}.
+     * The consumed data stays in the internal buffer and is not overwritten until {@link #commit()} or
+     * {@link #reset()} is called, unless the overflow policy overwrites the oldest data, which invalidates
+     * the mark. Calling this again moves the mark to the current head.
+     */
+    public void mark() {
+        markedSize = 0;
+    }
+
+    /**
+     * Restore the data consumed since {@link #mark()} and remove the mark.
+     *
+     * @throws IllegalStateException if not marked or the mark has been invalidated.
+     */
+    public void reset() {
+        if (markedSize < 0) {
+            throw new IllegalStateException("Not marked or the mark is invalidated by overflow!");
+        }
+        headIndex = wrap(headIndex - markedSize + buffer.length);
+        contentSize += markedSize;
+        markedSize = -1;
+        ++modificationCount;
+    }
+
+    /**
+     * Remove the mark. The data consumed since {@link #mark()} is released.
+     */
+    public void commit() {
+        markedSize = -1;
+    }
+
+    public boolean isMarked() {
+        return markedSize >= 0;
+    }
+
+    private void invalidateMark() {
+        if (markedSize > 0) {
+            discontinuity = true;
+            Log.w("ByteRingBuffer", "Mark is invalidated by overflow. " + markedSize + " bytes cannot be restored.");
+        }
+        markedSize = -1;
+    }
+
+    private int getRetainedSize() {
+        return markedSize > 0 ? contentSize + markedSize : contentSize;
     }
 
     public int getContentSize() {
@@ -195,7 +1006,11 @@ public class ByteRingBuffer {
     }
 
     public int getAvailableSize() {
-        return buffer.length - contentSize;
+        return buffer.length - getRetainedSize();
+    }
+
+    int getModificationCount() {
+        return modificationCount;
     }
 
     // For unit test
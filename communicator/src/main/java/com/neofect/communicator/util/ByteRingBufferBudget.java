@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.util;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A memory budget shared by multiple {@link ByteRingBuffer}s. A ring buffer attached to a budget
+ * asks it before expanding its internal buffer, and the budget applies its {@link PressurePolicy}
+ * when the expansion would exceed the limit.
+ * <p>
+ * The reserved bytes are the sum of the capacities granted to the attached buffers, which the buffers
+ * report on every reallocation. The used bytes are the sum of their content sizes, which is a snapshot
+ * because the buffers are modified by their own threads.
+ */
+public class ByteRingBufferBudget {
+
+	private static final String LOG_TAG = "ByteRingBufferBudget";
+
+	public enum PressurePolicy {
+		/** The expansion is refused so that the buffer overwrites its own oldest data. */
+		REFUSE_GROWTH,
+		/** The expansion is refused and the other buffers are asked to trim their unused space. */
+		COMPACT,
+		/** The expansion is refused and the largest buffer is asked to drop its oldest data and shrink. */
+		OVERWRITE_LARGEST,
+	}
+
+	private static final ByteRingBufferBudget global = new ByteRingBufferBudget(Long.MAX_VALUE, PressurePolicy.REFUSE_GROWTH);
+
+	/**
+	 * Returns the budget shared by the ring buffers of all connections. It is unlimited by default.
+	 */
+	public static ByteRingBufferBudget getGlobal() {
+		return global;
+	}
+
+	/** The capacities of the attached buffers, which are only accessed under the lock of this budget */
+	private final Map<ByteRingBuffer, Integer> capacities = new WeakHashMap<>();
+	private long limit;
+	private PressurePolicy pressurePolicy;
+	private long refusedExpansionCount = 0;
+
+	public ByteRingBufferBudget(long limit, PressurePolicy pressurePolicy) {
+		this.limit = limit;
+		this.pressurePolicy = pressurePolicy;
+	}
+
+	public synchronized long getLimit() {
+		return limit;
+	}
+
+	public synchronized void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	public synchronized PressurePolicy getPressurePolicy() {
+		return pressurePolicy;
+	}
+
+	public synchronized void setPressurePolicy(PressurePolicy pressurePolicy) {
+		this.pressurePolicy = pressurePolicy;
+	}
+
+	/**
+	 * Returns the total size of the internal buffers of attached ring buffers.
+	 */
+	public synchronized long getReservedBytes() {
+		long reservedBytes = 0;
+		for (int capacity : capacities.values()) {
+			reservedBytes += capacity;
+		}
+		return reservedBytes;
+	}
+
+	/**
+	 * Returns the total size of the content held by attached ring buffers.
+	 */
+	public synchronized long getUsedBytes() {
+		long usedBytes = 0;
+		for (ByteRingBuffer buffer : capacities.keySet()) {
+			usedBytes += buffer.getContentSize();
+		}
+		return usedBytes;
+	}
+
+	public synchronized int getBufferCount() {
+		return capacities.size();
+	}
+
+	/**
+	 * Returns how many times an expansion was refused or cut short by the limit.
+	 */
+	public synchronized long getRefusedExpansionCount() {
+		return refusedExpansionCount;
+	}
+
+	synchronized void attach(ByteRingBuffer buffer, int capacity) {
+		capacities.put(buffer, capacity);
+	}
+
+	synchronized void detach(ByteRingBuffer buffer) {
+		capacities.remove(buffer);
+	}
+
+	/**
+	 * Called by a ring buffer after reallocating its internal buffer, or after an expansion which is
+	 * reserved but not done.
+	 */
+	synchronized void updateCapacity(ByteRingBuffer buffer, int capacity) {
+		if (capacities.containsKey(buffer)) {
+			capacities.put(buffer, capacity);
+		}
+	}
+
+	/**
+	 * Called by a ring buffer before expanding its internal buffer.
+	 *
+	 * @param buffer
+	 * @param requestedCapacity
+	 * @return The capacity the buffer is allowed to expand to, which is recorded as its capacity.
+	 *         It is the current capacity if the expansion is refused.
+	 */
+	synchronized int reserve(ByteRingBuffer buffer, int requestedCapacity) {
+		Integer recordedCapacity = capacities.get(buffer);
+		int currentCapacity = recordedCapacity != null ? recordedCapacity : buffer.getCapacity();
+		long remainingBytes = limit - getReservedBytes();
+		if (requestedCapacity - currentCapacity <= remainingBytes) {
+			capacities.put(buffer, requestedCapacity);
+			return requestedCapacity;
+		}
+
+		++refusedExpansionCount;
+		switch (pressurePolicy) {
+			case COMPACT:
+				for (ByteRingBuffer other : capacities.keySet()) {
+					if (other != buffer) {
+						other.requestReclaim(ByteRingBuffer.RECLAIM_COMPACT);
+					}
+				}
+				break;
+
+			case OVERWRITE_LARGEST:
+				ByteRingBuffer largest = buffer;
+				int largestCapacity = currentCapacity;
+				for (Map.Entry<ByteRingBuffer, Integer> entry : capacities.entrySet()) {
+					if (entry.getValue() > largestCapacity) {
+						largest = entry.getKey();
+						largestCapacity = entry.getValue();
+					}
+				}
+				if (largest != buffer) {
+					largest.requestReclaim(ByteRingBuffer.RECLAIM_DROP_OLDEST);
+				}
+				break;
+
+			default:
+				break;
+		}
+		Log.w(LOG_TAG, "reserve: Budget exceeded. limit=" + limit + ", requested=" + requestedCapacity + ", policy=" + pressurePolicy);
+		int grantedCapacity = (int) Math.max(currentCapacity, Math.min(requestedCapacity, currentCapacity + remainingBytes));
+		capacities.put(buffer, grantedCapacity);
+		return grantedCapacity;
+	}
+
+}
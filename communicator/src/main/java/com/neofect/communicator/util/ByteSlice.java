@@ -0,0 +1,158 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only view over a region of byte data without copying it. A region of {@link ByteRingBuffer}
+ * may wrap around the end of its internal buffer, then the view consists of two segments.
+ * The second segment always starts at index 0 of the backing array.
+ * <p>
+ * A view obtained by {@link ByteRingBuffer#slice(int, int)} is released once the data of the ring buffer
+ * is consumed, cleared or moved. Accessing a released view throws {@link IllegalStateException}.
+ */
+public final class ByteSlice {
+
+	private final ByteRingBuffer owner;
+	private int ownerModificationCount;
+
+	private byte[] array;
+	private int offset;
+	private int length;
+	private int firstSegmentLength;
+
+	ByteSlice(ByteRingBuffer owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Create a view over a region of the given array. The view is never released.
+	 */
+	public static ByteSlice wrap(byte[] array, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > array.length) {
+			throw new ArrayIndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", arrayLength=" + array.length);
+		}
+		ByteSlice slice = new ByteSlice(null);
+		slice.set(array, offset, length, 0);
+		return slice;
+	}
+
+	void set(byte[] array, int offset, int length, int ownerModificationCount) {
+		this.array = array;
+		this.offset = offset;
+		this.length = length;
+		this.firstSegmentLength = Math.min(length, array.length - offset);
+		this.ownerModificationCount = ownerModificationCount;
+	}
+
+	private void checkValid() {
+		if (!isValid()) {
+			throw new IllegalStateException("The slice is released! The data of ring buffer has been consumed or moved.");
+		}
+	}
+
+	public boolean isValid() {
+		return owner == null || owner.getModificationCount() == ownerModificationCount;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public byte get(int index) {
+		checkValid();
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index + " out of " + length);
+		}
+		if (index < firstSegmentLength) {
+			return array[offset + index];
+		}
+		return array[index - firstSegmentLength];
+	}
+
+	/**
+	 * Returns true if the whole region is in one segment so that it can be accessed through
+	 * {@link #array()} and {@link #arrayOffset()} directly.
+	 */
+	public boolean isContiguous() {
+		return firstSegmentLength == length;
+	}
+
+	/**
+	 * Returns the backing array. It must not be modified.
+	 */
+	public byte[] array() {
+		checkValid();
+		return array;
+	}
+
+	/**
+	 * Returns the index of the first byte of the first segment in the backing array.
+	 */
+	public int arrayOffset() {
+		return offset;
+	}
+
+	public int getFirstSegmentLength() {
+		return firstSegmentLength;
+	}
+
+	public int getSecondSegmentLength() {
+		return length - firstSegmentLength;
+	}
+
+	/**
+	 * Copy the byte data of the view into the given array.
+	 */
+	public void copyTo(int index, byte[] target, int targetIndex, int copyLength) {
+		checkValid();
+		if (index < 0 || copyLength < 0 || index + copyLength > length) {
+			throw new ArrayIndexOutOfBoundsException("index=" + index + ", copyLength=" + copyLength + ", length=" + length);
+		}
+		if (index < firstSegmentLength) {
+			int firstCopyLength = Math.min(copyLength, firstSegmentLength - index);
+			System.arraycopy(array, offset + index, target, targetIndex, firstCopyLength);
+			index += firstCopyLength;
+			targetIndex += firstCopyLength;
+			copyLength -= firstCopyLength;
+		}
+		if (copyLength > 0) {
+			System.arraycopy(array, index - firstSegmentLength, target, targetIndex, copyLength);
+		}
+	}
+
+	/**
+	 * Returns a newly created array containing the byte data of the view.
+	 */
+	public byte[] toByteArray() {
+		byte[] result = new byte[length];
+		copyTo(0, result, 0, length);
+		return result;
+	}
+
+	/**
+	 * Returns read-only {@link ByteBuffer}s for the segments. The second one is empty if the view is contiguous.
+	 */
+	public ByteBuffer[] asByteBuffers() {
+		checkValid();
+		return new ByteBuffer[] {
+				ByteBuffer.wrap(array, offset, firstSegmentLength).slice().asReadOnlyBuffer(),
+				ByteBuffer.wrap(array, 0, length - firstSegmentLength).slice().asReadOnlyBuffer()
+		};
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.util;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free byte ring buffer for exactly one producer thread and one consumer thread,
+ * e.g. an I/O thread reading from a device and a thread decoding the data.
+ * <p>
+ * The head and tail are running byte counts. Only the producer advances the tail and only
+ * the consumer advances the head, so each is published by an ordered write without a monitor.
+ * The capacity is fixed and rounded up to a power of two. The producer never overwrites
+ * unconsumed data; a chunk which doesn't fit is dropped as a whole and counted instead.
+ * <p>
+ * A drop leaves a gap in the data. Once a chunk is dropped, the following chunks are dropped too
+ * until the consumer has drained all the data before the gap and called {@link #acknowledgeGap()},
+ * so the content always ends at the gap and the consumer can resynchronize exactly there.
+ */
+public class SpscByteRingBuffer {
+
+	private static final String LOG_TAG = "SpscByteRingBuffer";
+
+	private final byte[] buffer;
+	private final int mask;
+
+	/** The count of bytes consumed. Written by the consumer only. */
+	private final AtomicLong head = new AtomicLong();
+	/** The count of bytes produced. Written by the producer only. */
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong droppedByteCount = new AtomicLong();
+	/**
+	 * The tail when the data was dropped, or -1 if no gap. Set by the producer only when -1, and cleared
+	 * by the consumer only when set.
+	 */
+	private volatile long gapPosition = -1;
+
+	/** The last head seen by the producer, to avoid reading the volatile head on every offer. */
+	private long cachedHead = 0;
+	/** The last tail seen by the consumer, to avoid reading the volatile tail on every poll. */
+	private long cachedTail = 0;
+
+	public SpscByteRingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid capacity! capacity=" + capacity);
+		}
+		int roundedCapacity = Integer.highestOneBit(capacity);
+		if (roundedCapacity < capacity) {
+			roundedCapacity <<= 1;
+		}
+		buffer = new byte[roundedCapacity];
+		mask = roundedCapacity - 1;
+	}
+
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Returns the size of the content. It is a snapshot when called by neither the producer nor the consumer.
+	 */
+	public int getContentSize() {
+		long currentHead = head.get();
+		return (int) (tail.get() - currentHead);
+	}
+
+	public boolean isEmpty() {
+		return getContentSize() == 0;
+	}
+
+	/**
+	 * Returns the total size of the data dropped by {@link #offer(byte[], int, int)} because the buffer was full
+	 * or a gap wasn't acknowledged yet.
+	 */
+	public long getDroppedByteCount() {
+		return droppedByteCount.get();
+	}
+
+	/**
+	 * Called by the producer thread only.
+	 *
+	 * @return The size of the data written, which is either length or 0 if the whole data is dropped.
+	 */
+	public int offer(byte[] data, int offset, int length) {
+		long currentTail = tail.get();
+		if (gapPosition >= 0) {
+			droppedByteCount.addAndGet(length);
+			return 0;
+		}
+		int availableSize = buffer.length - (int) (currentTail - cachedHead);
+		if (availableSize < length) {
+			cachedHead = head.get();
+			availableSize = buffer.length - (int) (currentTail - cachedHead);
+		}
+		if (availableSize < length) {
+			droppedByteCount.addAndGet(length);
+			gapPosition = currentTail;
+			// Logged once per gap, since it's on the I/O thread
+			Log.w(LOG_TAG, "offer: The buffer is full! The data is dropped until the consumer catches up. capacity=" + buffer.length);
+			return 0;
+		}
+
+		int writeIndex = (int) currentTail & mask;
+		int firstWriteSize = Math.min(length, buffer.length - writeIndex);
+		System.arraycopy(data, offset, buffer, writeIndex, firstWriteSize);
+		System.arraycopy(data, offset + firstWriteSize, buffer, 0, length - firstWriteSize);
+
+		// Publish the data to the consumer
+		tail.lazySet(currentTail + length);
+		return length;
+	}
+
+	public int offer(byte[] data, int length) {
+		return offer(data, 0, length);
+	}
+
+	/**
+	 * Called by the consumer thread only.
+	 *
+	 * @return The size of the data read into the target.
+	 */
+	public int poll(byte[] target, int offset, int length) {
+		long currentHead = head.get();
+		int readSize = Math.min(length, readableSize(currentHead, length));
+		int readIndex = (int) currentHead & mask;
+		int firstReadSize = Math.min(readSize, buffer.length - readIndex);
+		System.arraycopy(buffer, readIndex, target, offset, firstReadSize);
+		System.arraycopy(buffer, 0, target, offset + firstReadSize, readSize - firstReadSize);
+
+		// Release the space to the producer
+		head.lazySet(currentHead + readSize);
+		return readSize;
+	}
+
+	/**
+	 * Move all the content into the given ring buffer. Called by the consumer thread only.
+	 *
+	 * @return The size of the data moved.
+	 */
+	public int drainTo(ByteRingBuffer target) {
+		long currentHead = head.get();
+		int readSize = readableSize(currentHead, buffer.length);
+		if (readSize == 0) {
+			return 0;
+		}
+		int readIndex = (int) currentHead & mask;
+		int firstReadSize = Math.min(readSize, buffer.length - readIndex);
+		target.put(buffer, readIndex, firstReadSize);
+		if (readSize > firstReadSize) {
+			target.put(buffer, 0, readSize - firstReadSize);
+		}
+
+		head.lazySet(currentHead + readSize);
+		return readSize;
+	}
+
+	/**
+	 * Returns whether some data has been dropped after the content.
+	 */
+	public boolean hasGap() {
+		return gapPosition >= 0;
+	}
+
+	/**
+	 * Let the producer offer again if all the data before the gap has been consumed. Called by the
+	 * consumer thread only, after it has taken the content, so it can mark the discontinuity right after it.
+	 *
+	 * @return True if the consumer has reached the gap and should resynchronize the data from now on.
+	 */
+	public boolean acknowledgeGap() {
+		long position = gapPosition;
+		if (position < 0 || head.get() < position) {
+			return false;
+		}
+		gapPosition = -1;
+		return true;
+	}
+
+	/**
+	 * Discard all the content. Called by the consumer thread only.
+	 */
+	public void clear() {
+		cachedTail = tail.get();
+		head.lazySet(cachedTail);
+	}
+
+	private int readableSize(long currentHead, int requiredSize) {
+		if (cachedTail - currentHead < requiredSize) {
+			cachedTail = tail.get();
+		}
+		return (int) (cachedTail - currentHead);
+	}
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator;
+
+import com.neofect.communicator.TestFixtures.DummyDevice;
+import com.neofect.communicator.TestFixtures.TestConnection;
+import com.neofect.communicator.TestFixtures.TestMapper;
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageImpl;
+import com.neofect.communicator.message.frame.FixedLengthFrameDecoder;
+import com.neofect.communicator.pipeline.InboundMessageStage;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ControllerTest {
+
+	public static class SensorDevice extends Device {
+		final List<Message> processed = new ArrayList<>();
+		public SensorDevice(Connection connection) { super(connection); }
+		@Override protected boolean processMessage(Message message) { return processed.add(message); }
+		@Override protected boolean isSubscribing(Class<? extends Message> messageClass) { return SensorSample.class.isAssignableFrom(messageClass); }
+	}
+
+	private interface SensorSample extends Message {
+	}
+
+	public static class ButtonMessage extends MessageImpl {
+		@Override
+		public void decodePayload(byte[] data, int startIndex, int length) {
+		}
+	}
+
+	public static class SensorMessage extends ButtonMessage implements SensorSample {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	@Test
+	public void testTypedCallbacks() {
+		FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(ButtonMessage.class, SensorMessage.class), 1, 0, 1);
+		Controller<DummyDevice> controller = new Controller<DummyDevice>(null, decoder) {};
+		TestConnection connection = new TestConnection(controller);
+
+		final List<String> calls = new ArrayList<>();
+		Controller.TypedCallback<ButtonMessage> buttonCallback = (c, message) -> {
+			calls.add("button");
+			return false;
+		};
+		controller.addCallback(ButtonMessage.class, buttonCallback);
+		controller.addCallback(SensorSample.class, (c, message) -> calls.add("sensor"));
+		controller.addCallback(SensorMessage.class, (c, message) -> calls.add("skipped"));
+		assertTrue("Subscribed by the superclass", controller.hasSubscribers(SensorMessage.class));
+		assertFalse("Not subscribed", controller.hasSubscribers(MessageImpl.class));
+
+		// The sensor sample callback skips the processes after it
+		connection.receive("01" + "02");
+		assertEquals("Dispatched by class", "[button, button, sensor]", calls.toString());
+
+		assertTrue("Removed", controller.removeCallback(buttonCallback));
+		assertFalse("Removed already", controller.removeCallback(buttonCallback));
+		assertFalse("No longer subscribed", controller.hasSubscribers(ButtonMessage.class));
+
+		// The unsubscribed messages are dropped before decoding
+		calls.clear();
+		controller.setSkippingUnsubscribedMessages(true);
+		connection.receive("01" + "02");
+		assertEquals("Only the subscribed", "[sensor]", calls.toString());
+		assertEquals("Filtered messages", 1, decoder.getFilteredMessageCount());
+	}
+
+	@Test
+	public void testChangingCallbacksDuringDispatch() {
+		FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(ButtonMessage.class, SensorMessage.class), 1, 0, 1);
+		Controller<DummyDevice> controller = new Controller<DummyDevice>(null, decoder) {};
+		TestConnection connection = new TestConnection(controller);
+
+		final List<String> calls = new ArrayList<>();
+		final Controller.InboundMessageCallback added = (c, message) -> calls.add("added");
+		final Controller.InboundMessageCallback removed = (c, message) -> {
+			calls.add("removed");
+			return false;
+		};
+		controller.addCallbackAfterProcessInboundMessage(new Controller.InboundMessageCallback() {
+			private boolean changed = false;
+
+			@Override
+			public boolean process(Connection c, Message message) {
+				calls.add("changing");
+				if (!changed) {
+					changed = true;
+					controller.addCallbackAfterProcessInboundMessage(added);
+					controller.removeCallbackAfterProcessInboundMessage(removed);
+				}
+				return false;
+			}
+		});
+		controller.addCallbackAfterProcessInboundMessage(removed);
+
+		// The running dispatch keeps the callbacks at its start
+		connection.receive("01");
+		assertEquals("Dispatched to the old callbacks", "[changing, removed]", calls.toString());
+
+		calls.clear();
+		connection.receive("01");
+		assertEquals("Dispatched to the new callbacks", "[changing, added]", calls.toString());
+	}
+
+	@Test
+	public void testSkippingUnsubscribedMessages() {
+		FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(ButtonMessage.class, SensorMessage.class), 1, 0, 1);
+		Controller<SensorDevice> controller = new Controller<SensorDevice>(null, decoder) {};
+		controller.setSkippingUnsubscribedMessages(true);
+		TestConnection connection = new TestConnection(controller);
+		connection.connected();
+		try {
+			assertTrue("Subscribed by the device", controller.hasSubscribers(SensorMessage.class));
+			assertFalse("Not subscribed by the device", controller.hasSubscribers(ButtonMessage.class));
+
+			connection.receive("01" + "02");
+			assertEquals("Only the subscribed", 1, controller.getDevice().processed.size());
+			assertTrue("Sensor message", controller.getDevice().processed.get(0) instanceof SensorMessage);
+			assertEquals("Filtered messages", 1, decoder.getFilteredMessageCount());
+
+			// An inbound message stage gets all the messages
+			connection.getPipeline().addLast("pass", (InboundMessageStage) (context, message) -> context.readMessage(message));
+			assertTrue("Subscribed by the stage", controller.hasSubscribers(ButtonMessage.class));
+			connection.getPipeline().remove("pass");
+
+			// So does a listener of the device
+			Communicator.Listener<SensorDevice> listener = new Communicator.Listener<SensorDevice>() {};
+			Communicator.registerListener(listener);
+			assertTrue("Subscribed by the listener", controller.hasSubscribers(ButtonMessage.class));
+			Communicator.unregisterListener(listener);
+			assertFalse("No more subscriber", controller.hasSubscribers(ButtonMessage.class));
+		} finally {
+			connection.disconnected();
+		}
+	}
+
+	@Test
+	public void testReplacingEncoderWithoutCache() {
+		Controller<DummyDevice> controller = new Controller<DummyDevice>(null, null) {};
+		controller.setEncodedMessageCacheSize(0);
+		controller.setMessageEncoder(null);
+		assertNull("Encoder replaced", controller.getMessageEncoder());
+	}
+
+	@Test
+	public void testRingBufferCannotBlock() {
+		TestConnection connection = new TestConnection(new Controller<DummyDevice>(null, null) {});
+		try {
+			connection.getRingBuffer().setOverflowPolicy(ByteRingBuffer.OverflowPolicy.BLOCK);
+			fail("The ring buffer of a connection must not block");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		connection.getRingBuffer().setOverflowPolicy(ByteRingBuffer.OverflowPolicy.REJECT_NEWEST);
+		assertEquals("Other policy", ByteRingBuffer.OverflowPolicy.REJECT_NEWEST, connection.getRingBuffer().getOverflowPolicy());
+	}
+
+	@Test
+	public void testDecodeExecutor() {
+		final List<Runnable> tasks = new ArrayList<>();
+		Controller<DummyDevice> controller = new Controller<DummyDevice>(null, new FixedLengthFrameDecoder(new TestMapper(ButtonMessage.class, SensorMessage.class), 1, 0, 1)) {};
+		controller.setDecodeExecutor(tasks::add, 8);
+		final List<Message> processed = new ArrayList<>();
+		controller.addCallbackAfterProcessInboundMessage((connection, message) -> processed.add(message));
+		TestConnection connection = new TestConnection(controller);
+
+		// The reads are queued and coalesced into one decode task
+		connection.receive("01");
+		connection.receive("0202");
+		assertEquals("Scheduled tasks", 1, tasks.size());
+		assertEquals("Not decoded on the read thread", 0, processed.size());
+		assertEquals("Pending bytes", 3, connection.getDecodeHandoff().getPendingByteCount());
+
+		tasks.remove(0).run();
+		assertEquals("Decoded in order", 3, processed.size());
+		assertTrue("Second message", processed.get(1) instanceof SensorMessage);
+		assertEquals("Handoffs", 1, connection.getDecodeHandoff().getHandoffCount());
+		assertTrue("Latency recorded", connection.getDecodeHandoff().getMaxHandoffLatencyNanos() >= 0);
+
+		// A chunk over the queue capacity is dropped as a whole, and so is the following until the gap is reached
+		connection.receive("0101");
+		connection.receive("01010101010101");
+		connection.receive("01");
+		assertEquals("Dropped bytes", 8, connection.getDecodeHandoff().getDroppedByteCount());
+		tasks.remove(0).run();
+		assertEquals("Decoded the data before the gap", 5, processed.size());
+		assertTrue("Resynchronizes at the gap", connection.getRingBuffer().hasDiscontinuity());
+
+		connection.receive("02");
+		tasks.remove(0).run();
+		assertEquals("Decoded after the gap", 6, processed.size());
+		assertTrue("No more task", tasks.isEmpty());
+
+		// The data is decoded on the read thread if the executor rejects the task
+		Controller<DummyDevice> rejectingController = new Controller<DummyDevice>(null, new FixedLengthFrameDecoder(new TestMapper(ButtonMessage.class, SensorMessage.class), 1, 0, 1)) {};
+		rejectingController.setDecodeExecutor(task -> {
+			throw new RejectedExecutionException();
+		}, 8);
+		rejectingController.addCallbackAfterProcessInboundMessage((c, message) -> processed.add(message));
+		TestConnection rejectedConnection = new TestConnection(rejectingController);
+		rejectedConnection.receive("0101");
+		assertEquals("Decoded on the read thread", 8, processed.size());
+		assertEquals("Rejected tasks", 1, rejectedConnection.getDecodeHandoff().getRejectedCount());
+	}
+
+}
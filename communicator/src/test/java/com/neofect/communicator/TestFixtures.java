@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator;
+
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.util.ByteArrayConverter;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The device, connection, mapper and buffer shared by the tests.
+ */
+public final class TestFixtures {
+
+	private TestFixtures() {
+	}
+
+	/**
+	 * Returns a buffer which contains the data given in hex.
+	 */
+	public static ByteRingBuffer createBuffer(String hex) {
+		ByteRingBuffer buffer = new ByteRingBuffer(64);
+		buffer.put(ByteArrayConverter.hexToByteArray(hex));
+		return buffer;
+	}
+
+	public static class DummyDevice extends Device {
+		public DummyDevice(Connection connection) { super(connection); }
+		@Override protected boolean processMessage(Message message) { return false; }
+	}
+
+	/**
+	 * Maps the message ID n of 1 byte to the nth class, and the other IDs to null.
+	 */
+	public static class TestMapper implements MessageClassMapper {
+		private final List<Class<? extends Message>> messageClasses = new ArrayList<>();
+
+		@SafeVarargs
+		public TestMapper(Class<? extends Message>... messageClasses) {
+			for (Class<? extends Message> messageClass : messageClasses) {
+				this.messageClasses.add(messageClass);
+			}
+		}
+
+		@Override
+		public Class<? extends Message> getMessageClassById(byte[] messageId) {
+			int index = messageId[0] - 1;
+			return index >= 0 && index < messageClasses.size() ? messageClasses.get(index) : null;
+		}
+
+		@Override
+		public byte[] getMessageIdByClass(Class<? extends Message> messageClass) {
+			int index = messageClasses.indexOf(messageClass);
+			return index < 0 ? null : new byte[] { (byte) (index + 1) };
+		}
+
+		@Override
+		public Collection<Class<? extends Message>> getMessageClasses() {
+			return messageClasses;
+		}
+	}
+
+	/**
+	 * Keeps the data written in hex, and reads the data given in hex.
+	 */
+	public static class TestConnection extends Connection {
+		public final List<String> written = new ArrayList<>();
+
+		public TestConnection(Controller<? extends Device> controller) { super(ConnectionType.DUMMY, controller); }
+		@Override protected void connect() {}
+		@Override public void disconnect() {}
+		@Override public String getDeviceIdentifier() { return "test"; }
+		@Override public String getDeviceName() { return "test"; }
+		@Override public String getDescription() { return "test"; }
+
+		@Override
+		public void write(byte[] data) {
+			write(data, 0, data.length);
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) {
+			written.add(ByteArrayConverter.byteArrayToHexWithoutSpace(Arrays.copyOfRange(data, offset, offset + length)));
+		}
+
+		public void receive(String hex) {
+			handleReadData(ByteArrayConverter.hexToByteArray(hex));
+		}
+
+		public void connected() {
+			Communicator.getInstance().notifyStartConnecting(this, getController().getDeviceClass());
+			handleConnected();
+		}
+
+		public void disconnected() {
+			handleDisconnected();
+		}
+	}
+
+}
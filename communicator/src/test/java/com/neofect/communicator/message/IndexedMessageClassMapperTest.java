@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import com.neofect.communicator.util.ByteArrayConverter;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class IndexedMessageClassMapperTest {
+
+	public static class MessageA extends MessageImpl {
+	}
+
+	public static class MessageB extends MessageImpl {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	@Test
+	public void testSingleByteId() {
+		IndexedMessageClassMapper mapper = new IndexedMessageClassMapper(1);
+		mapper.register(0x01, MessageA.class);
+		mapper.register(0xff, MessageB.class);
+		assertEquals("By array", MessageA.class, mapper.getMessageClassById(new byte[] { 0x01 }));
+		assertEquals("By int", MessageB.class, mapper.getMessageClassById(0xff, 1));
+		assertNull("Out of range", mapper.getMessageClassById(0x1ff, 1));
+		assertNull("Not registered", mapper.getMessageClassById(new byte[] { 0x02 }));
+		assertNull("Other length", mapper.getMessageClassById(new byte[] { 0x00, 0x01 }));
+		assertArrayEquals("ID of class", new byte[] { (byte) 0xff }, mapper.getMessageIdByClass(MessageB.class));
+		assertEquals("Registered classes", 2, mapper.getMessageClasses().size());
+
+		try {
+			mapper.register(0x100, MessageA.class);
+			fail("ID longer than the length must be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testMultiByteId() {
+		IndexedMessageClassMapper mapper = new IndexedMessageClassMapper(3);
+		mapper.register(0x010203, MessageA.class);
+		mapper.register(0xff0000, MessageB.class);
+		assertEquals("By array", MessageA.class, mapper.getMessageClassById(new byte[] { 0x01, 0x02, 0x03 }));
+		assertEquals("By int", MessageB.class, mapper.getMessageClassById(0xff0000, 3));
+		assertNull("Not registered", mapper.getMessageClassById(0x010204, 3));
+		assertArrayEquals("ID of class", new byte[] { 0x01, 0x02, 0x03 }, mapper.getMessageIdByClass(MessageA.class));
+
+		ByteRingBuffer buffer = new ByteRingBuffer(16);
+		buffer.put(ByteArrayConverter.hexToByteArray("aaff0000"));
+		assertEquals("By buffer offset", MessageB.class, mapper.getMessageClassById(buffer, 1));
+
+		try {
+			mapper.register(0x010203, MessageB.class);
+			fail("Duplicate ID must be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+}
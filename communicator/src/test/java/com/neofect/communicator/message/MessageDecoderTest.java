@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import com.neofect.communicator.TestFixtures.TestMapper;
+import com.neofect.communicator.message.frame.FixedLengthFrameDecoder;
+import com.neofect.communicator.util.ByteArrayConverter;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import static com.neofect.communicator.TestFixtures.createBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class MessageDecoderTest {
+
+	public static class EmptyMessage extends MessageImpl {
+		@Override
+		public void decodePayload(byte[] data, int startIndex, int length) {
+		}
+	}
+
+	public static class StrictMessage extends MessageImpl {
+		@Override
+		public void decodePayload(byte[] data, int startIndex, int length) {
+			if (data[startIndex] != 0x00) {
+				throw new IllegalArgumentException("Invalid payload");
+			}
+		}
+	}
+
+	public static class CounterMessage extends LazyMessage {
+		private int counter;
+		private int parseCount = 0;
+
+		int getCounter() {
+			ensureParsed();
+			return counter;
+		}
+
+		@Override
+		protected void parsePayload(byte[] data, int startIndex, int length) {
+			++parseCount;
+			if (data[startIndex] < 0) {
+				throw new IllegalArgumentException("Invalid counter");
+			}
+			counter = data[startIndex];
+		}
+	}
+
+	public static class SensorMessage extends PooledMessage {
+		private int value;
+
+		@Override
+		public void decodePayload(byte[] data, int startIndex, int length) {
+			if (data[startIndex] < 0) {
+				throw new IllegalArgumentException("Invalid value");
+			}
+			value = data[startIndex];
+		}
+
+		@Override
+		protected void reset() {
+			value = 0;
+		}
+	}
+
+	public static class NoDefaultConstructorMessage extends EmptyMessage {
+		public NoDefaultConstructorMessage(int value) {
+		}
+	}
+
+	/** Creates {@link NoDefaultConstructorMessage} by the factory */
+	private static class FactoryMapper extends TestMapper {
+		private int factoryCallCount = 0;
+
+		FactoryMapper() {
+			super(NoDefaultConstructorMessage.class);
+		}
+
+		@Override
+		public MessageFactory<? extends Message> getMessageFactory(Class<? extends Message> messageClass) {
+			if (messageClass != NoDefaultConstructorMessage.class) {
+				return null;
+			}
+			return () -> {
+				++factoryCallCount;
+				return new NoDefaultConstructorMessage(0);
+			};
+		}
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	@Test
+	public void testMessageFactory() {
+		// The cached constructor
+		MessageDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(EmptyMessage.class), 1, 0, 1);
+		ByteRingBuffer buffer = createBuffer("0101");
+		assertTrue("Created by constructor", decoder.decodeMessage(buffer) instanceof EmptyMessage);
+		assertTrue("Created again", decoder.decodeMessage(buffer) instanceof EmptyMessage);
+
+		// The factory from the mapper
+		FactoryMapper mapper = new FactoryMapper();
+		decoder.setMessageClassMapper(mapper);
+		buffer.put(ByteArrayConverter.hexToByteArray("0101"));
+		assertTrue("Created by factory", decoder.decodeMessage(buffer) instanceof NoDefaultConstructorMessage);
+		decoder.decodeMessage(buffer);
+		assertEquals("Factory calls", 2, mapper.factoryCallCount);
+
+		// The registered factory precedes the mapper
+		final int[] registeredCallCount = new int[1];
+		decoder.registerMessageFactory(NoDefaultConstructorMessage.class, () -> {
+			++registeredCallCount[0];
+			return new NoDefaultConstructorMessage(1);
+		});
+		buffer.put(ByteArrayConverter.hexToByteArray("01"));
+		decoder.decodeMessage(buffer);
+		assertEquals("Registered factory calls", 1, registeredCallCount[0]);
+		assertEquals("Mapper factory calls", 2, mapper.factoryCallCount);
+	}
+
+	@Test
+	public void testDecodeFailureWithoutException() {
+		MessageDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(StrictMessage.class), 2, 0, 1);
+		// Unknown ID, corrupt payload, valid message
+		ByteRingBuffer buffer = createBuffer("0200" + "01ff" + "0100");
+		assertTrue("Decoded after the dropped frames", decoder.decodeMessage(buffer) instanceof StrictMessage);
+		assertEquals("Unknown message IDs", 1, decoder.getUnknownMessageIdCount());
+		assertEquals("Corrupt payloads", 1, decoder.getCorruptPayloadCount());
+		assertEquals("All consumed", 0, buffer.getContentSize());
+
+		// The throwing variant keeps the payload in the exception message
+		MessageDecoder throwingDecoder = new MessageDecoder(new TestMapper(StrictMessage.class)) {
+			@Override
+			public Message decodeMessage(ByteRingBuffer inputBuffer) {
+				return decodeMessagePayload(new byte[] { 0x01 }, new byte[] { (byte) 0xab }, 0, 1);
+			}
+		};
+		try {
+			throwingDecoder.decodeMessage(buffer);
+			fail("Corrupt payload must throw");
+		} catch (RuntimeException e) {
+			assertTrue("Payload in the exception", e.getMessage().contains("payload=ab"));
+		}
+	}
+
+	@Test
+	public void testLazyMessage() {
+		MessageDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(CounterMessage.class), 2, 0, 1);
+		ByteRingBuffer buffer = createBuffer("0107" + "01ff");
+		CounterMessage message = (CounterMessage) decoder.decodeMessage(buffer);
+		assertFalse("Not parsed until accessed", message.isParsed());
+		buffer.put(ByteArrayConverter.hexToByteArray("0000"));
+		assertEquals("Parsed from the copy", 7, message.getCounter());
+		message.getCounter();
+		assertEquals("Parsed once", 1, message.parseCount);
+
+		CounterMessage corrupt = (CounterMessage) decoder.decodeMessage(buffer);
+		try {
+			corrupt.getCounter();
+			fail("Corrupt payload must be found on access");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testPooledMessage() {
+		MessagePool.setLeakDetectionEnabled(true);
+		try {
+			MessagePool<SensorMessage> pool = new MessagePool<>(SensorMessage::new, 2);
+			MessageDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(SensorMessage.class), 2, 0, 1);
+			decoder.registerMessageFactory(SensorMessage.class, pool);
+			ByteRingBuffer buffer = createBuffer("0107" + "01ff" + "0108");
+
+			SensorMessage first = (SensorMessage) decoder.decodeMessage(buffer);
+			assertEquals("Decoded value", 7, first.value);
+			first.retain();
+			assertFalse("Still referenced", first.release());
+			assertTrue("Recycled by the last release", first.release());
+			assertEquals("Reset when recycled", 0, first.value);
+
+			// The corrupt payload is recycled by the decoder, and the instance is reused
+			SensorMessage second = (SensorMessage) decoder.decodeMessage(buffer);
+			assertSame("Reused instance", first, second);
+			assertEquals("Decoded value", 8, second.value);
+			assertEquals("Created messages", 1, pool.getCreatedCount());
+			assertEquals("Leaked messages", 1, MessagePool.getLeakedMessages().size());
+
+			MessagePool.release(second);
+			assertEquals("No leak", 0, MessagePool.getLeakedMessages().size());
+			assertEquals("Pooled messages", 1, pool.getPooledCount());
+			try {
+				second.release();
+				fail("Releasing a recycled message must fail");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+		} finally {
+			MessagePool.setLeakDetectionEnabled(false);
+		}
+	}
+
+	@Test
+	public void testPreloadFailure() {
+		MessageClassMapper mapper = new TestMapper(NoDefaultConstructorMessage.class);
+		try {
+			new FixedLengthFrameDecoder(mapper, 1, 0, 1);
+			fail("A message class without the no-arg constructor must fail when the decoder is created");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message;
+
+import com.neofect.communicator.util.ByteArrayConverter;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class MessageEncoderTest {
+
+	private static class FillMessage extends MessageImpl {
+		private final int size;
+
+		FillMessage(int size) {
+			this.size = size;
+		}
+
+		@Override
+		public int getPayloadSizeHint() {
+			return size;
+		}
+
+		@Override
+		public void encodePayload(ByteBuffer target) {
+			for (int i = 0; i < size; ++i) {
+				target.put((byte) i);
+			}
+		}
+	}
+
+	private static class BeepMessage extends FillMessage implements CacheableMessage {
+		BeepMessage(int size) {
+			super(size);
+		}
+
+		@Override
+		public Object getCacheKey() {
+			return getPayloadSizeHint();
+		}
+	}
+
+	private static class OtherBeepMessage extends BeepMessage {
+		OtherBeepMessage(int size) {
+			super(size);
+		}
+	}
+
+	private static class BufferEncoder extends MessageEncoder {
+		private boolean useSizeHint = true;
+
+		BufferEncoder() {
+			super(null);
+		}
+
+		@Override
+		public byte[] encodeMessage(Message message) {
+			return encodeMessageToArray(message);
+		}
+
+		@Override
+		public void encodeMessage(Message message, ByteBuffer target) {
+			target.put((byte) 0x9d);
+			message.encodePayload(target);
+		}
+
+		@Override
+		public int getEncodedSizeHint(Message message) {
+			return useSizeHint ? 1 + message.getPayloadSizeHint() : -1;
+		}
+	}
+
+	private static class ArrayEncoder extends MessageEncoder {
+		final byte[] encoded = ByteArrayConverter.hexToByteArray("9d01");
+
+		ArrayEncoder() {
+			super(null);
+		}
+
+		@Override
+		public byte[] encodeMessage(Message message) {
+			return encoded;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	@Test
+	public void testEncodeIntoBuffer() {
+		BufferEncoder encoder = new BufferEncoder();
+		ByteBuffer buffer = encoder.encode(new FillMessage(3), null);
+		assertEquals("Encoded size", 4, buffer.limit());
+		assertSame("Reused buffer", buffer, encoder.encode(new FillMessage(10), buffer));
+		assertEquals("Presized by the hint", 201, encoder.encode(new FillMessage(200), buffer).capacity());
+
+		// Grows when the size is not known in advance
+		encoder.useSizeHint = false;
+		buffer = encoder.encode(new FillMessage(300), ByteBuffer.allocate(16));
+		assertEquals("Encoded size without hint", 301, buffer.limit());
+		assertEquals("Last byte", (byte) 299, buffer.get(300));
+
+		assertArrayEquals("Array adapter", ByteArrayConverter.hexToByteArray("9d0001"), encoder.encodeMessage(new FillMessage(2)));
+		assertTrue("Encodes into buffer", encoder.isEncodingIntoBuffer());
+
+		// The array of an encoder which doesn't encode into a buffer isn't copied
+		ArrayEncoder arrayEncoder = new ArrayEncoder();
+		assertFalse("Encodes into array", arrayEncoder.isEncodingIntoBuffer());
+		assertSame("Not copied", arrayEncoder.encoded, arrayEncoder.encodeMessageToArray(new FillMessage(1)));
+		assertSame("Prepared without a copy", arrayEncoder.encoded, PreparedMessage.prepare(arrayEncoder, new FillMessage(1)).getEncodedMessage());
+	}
+
+	@Test
+	public void testPreparedMessage() {
+		BufferEncoder encoder = new BufferEncoder();
+		FillMessage message = new FillMessage(2);
+		PreparedMessage prepared = PreparedMessage.prepare(encoder, message);
+		assertSame("Original message", message, prepared.getMessage());
+		assertArrayEquals("Encoded in advance", ByteArrayConverter.hexToByteArray("9d0001"), prepared.getEncodedMessage());
+	}
+
+	@Test
+	public void testEncodedMessageCache() {
+		EncodedMessageCache cache = new EncodedMessageCache(2);
+		byte[] encoded1 = new byte[] { 1 };
+		cache.put(new BeepMessage(1), encoded1);
+		cache.put(new OtherBeepMessage(1), new byte[] { 2 });
+		assertSame("Same class and key", encoded1, cache.get(new BeepMessage(1)));
+		assertNull("Different key", cache.get(new BeepMessage(2)));
+
+		// The least recently used entry is evicted
+		cache.put(new BeepMessage(3), new byte[] { 3 });
+		assertEquals("Bounded", 2, cache.size());
+		assertNull("Evicted", cache.get(new OtherBeepMessage(1)));
+		assertSame("Recently used", encoded1, cache.get(new BeepMessage(1)));
+	}
+
+	@Test
+	public void testArrayEncoder() {
+		MessageEncoder encoder = new MessageEncoder(null) {
+			@Override
+			public byte[] encodeMessage(Message message) {
+				return new byte[] { 0x01, 0x02 };
+			}
+		};
+		ByteBuffer buffer = encoder.encode(new MessageImpl(), null);
+		assertEquals("Encoded by the array path", 2, buffer.limit());
+		assertEquals("Second byte", 0x02, buffer.get(1));
+	}
+
+}
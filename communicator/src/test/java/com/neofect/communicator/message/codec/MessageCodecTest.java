@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.codec;
+
+import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.message.MessageImpl;
+import com.neofect.communicator.util.ByteArrayConverter;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class MessageCodecTest {
+
+	@MessageId(0x10)
+	public static class SensorMessage extends MessageImpl {
+		@PayloadField(index = 0, bits = 3) int status;
+		@PayloadField(index = 1, bits = 1) boolean active;
+		@PayloadField(index = 2, bits = 4) byte channel;
+		@PayloadField(index = 3) short value;
+		@PayloadField(index = 4, size = 3, order = Endianness.LITTLE_ENDIAN) int counter;
+		@PayloadField(index = 5, size = 2, signed = true) int offset;
+		@PayloadField(index = 6) float gain;
+		@PayloadField(index = 7) byte sampleCount;
+		@PayloadField(index = 8, lengthField = "sampleCount", order = Endianness.LITTLE_ENDIAN) short[] samples;
+		@PayloadField(index = 9) byte[] extra;
+
+		@Override
+		public void decodePayload(byte[] data, int startIndex, int length) {
+			MessageCodecTest_SensorMessageCodec.decode(this, data, startIndex, length);
+		}
+
+		@Override
+		public byte[] encodePayload() {
+			return MessageCodecTest_SensorMessageCodec.encode(this);
+		}
+	}
+
+	@MessageId(0x11)
+	public static class StatusMessage extends MessageImpl {
+		@PayloadField(index = 0, size = 6) long timestamp;
+		@PayloadField(index = 1) double level;
+		@PayloadField(index = 2) char mode;
+		@PayloadField(index = 3, length = 2) int[] errors;
+		@PayloadField(index = 4, bits = 36) long serial;
+		@PayloadField(index = 5, bits = 4) int revision;
+
+		@Override
+		public void decodePayload(byte[] data, int startIndex, int length) {
+			MessageCodecTest_StatusMessageCodec.decode(this, data, startIndex, length);
+		}
+
+		@Override
+		public byte[] encodePayload() {
+			return MessageCodecTest_StatusMessageCodec.encode(this);
+		}
+
+		@Override
+		public int getPayloadSizeHint() {
+			return MessageCodecTest_StatusMessageCodec.getEncodedSize(this);
+		}
+
+		@Override
+		public void encodePayload(ByteBuffer target) {
+			MessageCodecTest_StatusMessageCodec.encode(this, target);
+		}
+	}
+
+	private static final String SENSOR_PAYLOAD = "ba" + "fffe" + "563412" + "fffd" + "3fc00000" + "02" + "02010403" + "aabb";
+	private static final String STATUS_PAYLOAD = "010203040506" + "4000000000000000" + "0041" + "00000001ffffffff" + "89abcdef15";
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	@Test
+	public void testDecodeAndEncode() {
+		byte[] payload = ByteArrayConverter.hexToByteArray("00" + SENSOR_PAYLOAD);
+		SensorMessage sensor = new SensorMessage();
+		sensor.decodePayload(payload, 1, payload.length - 1);
+		assertEquals("Bit field", 5, sensor.status);
+		assertTrue("Boolean bit field", sensor.active);
+		assertEquals("Last bit field", 0x0a, sensor.channel);
+		assertEquals("Short", -2, sensor.value);
+		assertEquals("Little endian 3 bytes", 0x123456, sensor.counter);
+		assertEquals("Sign-extended", -3, sensor.offset);
+		assertEquals("Float", 1.5f, sensor.gain, 0);
+		assertArrayEquals("Counted array", new short[] { 0x0102, 0x0304 }, sensor.samples);
+		assertArrayEquals("Rest of payload", new byte[] { (byte) 0xaa, (byte) 0xbb }, sensor.extra);
+		assertEquals("Encoded", SENSOR_PAYLOAD, ByteArrayConverter.byteArrayToHexWithoutSpace(sensor.encodePayload()));
+
+		// The length field is written from the array
+		sensor.samples = new short[] { 1 };
+		sensor.extra = null;
+		assertEquals("Encoded size", MessageCodecTest_SensorMessageCodec.MIN_PAYLOAD_SIZE + 2, sensor.encodePayload().length);
+		assertEquals("Length field", 1, sensor.encodePayload()[12]);
+
+		StatusMessage status = new StatusMessage();
+		status.decodePayload(ByteArrayConverter.hexToByteArray(STATUS_PAYLOAD), 0, STATUS_PAYLOAD.length() / 2);
+		assertEquals("6 bytes", 0x010203040506L, status.timestamp);
+		assertEquals("Double", 2.0, status.level, 0);
+		assertEquals("Char", 'A', status.mode);
+		assertArrayEquals("Fixed array", new int[] { 1, -1 }, status.errors);
+		assertEquals("Bit field in long group", 0x89abcdef1L, status.serial);
+		assertEquals("Last bit field in long group", 5, status.revision);
+		assertEquals("Encoded", STATUS_PAYLOAD, ByteArrayConverter.byteArrayToHexWithoutSpace(status.encodePayload()));
+
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.put((byte) 0x9d);
+		status.encodePayload(buffer);
+		assertEquals("Encoded into buffer", 1 + status.getPayloadSizeHint(), buffer.position());
+		assertEquals("Last byte in buffer", 0x15, buffer.get(buffer.position() - 1));
+	}
+
+	@Test
+	public void testInvalidPayload() {
+		SensorMessage sensor = new SensorMessage();
+		try {
+			sensor.decodePayload(new byte[4], 0, 4);
+			fail("Too short payload must be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		byte[] payload = ByteArrayConverter.hexToByteArray(SENSOR_PAYLOAD);
+		try {
+			// The length field says 2 samples but only 1 byte follows
+			sensor.decodePayload(payload, 0, 16);
+			fail("Too short array must be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+
+		// The array length must fit the unsigned byte of the length field
+		sensor.decodePayload(payload, 0, payload.length);
+		sensor.samples = new short[255];
+		assertEquals("Max count", (byte) 255, sensor.encodePayload()[12]);
+		sensor.samples = new short[300];
+		try {
+			sensor.encodePayload();
+			fail("Too long array for the length field must be rejected");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testGeneratedMapper() {
+		MessageClassMapper mapper = new GeneratedMessageClassMapper();
+		assertEquals("Class by ID", StatusMessage.class, mapper.getMessageClassById(new byte[] { 0x11 }));
+		assertArrayEquals("ID by class", new byte[] { 0x10 }, mapper.getMessageIdByClass(SensorMessage.class));
+		assertEquals("Message classes", 2, mapper.getMessageClasses().size());
+		assertTrue("Factory", mapper.getMessageFactory(SensorMessage.class).create() instanceof SensorMessage);
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.message.frame;
+
+import com.neofect.communicator.TestFixtures.TestMapper;
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageImpl;
+import com.neofect.communicator.util.ByteArrayConverter;
+import com.neofect.communicator.util.ByteRingBuffer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.neofect.communicator.TestFixtures.createBuffer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class FrameDecoderTest {
+
+	public static class PayloadMessage extends MessageImpl {
+		private String payload;
+
+		@Override
+		public void decodePayload(byte[] data, int startIndex, int length) {
+			payload = ByteArrayConverter.byteArrayToHexWithoutSpace(Arrays.copyOfRange(data, startIndex, startIndex + length));
+		}
+	}
+
+	public static class OtherMessage extends PayloadMessage {
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	private static String decodePayload(FrameDecoder decoder, ByteRingBuffer buffer) {
+		PayloadMessage message = (PayloadMessage) decoder.decodeMessage(buffer);
+		return message == null ? null : message.payload;
+	}
+
+	@Test
+	public void testLengthField() {
+		// Header(0x9d), length of the rest(1 byte), message ID, payload
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), 1, 1, ByteOrder.BIG_ENDIAN, 0, 2, 1);
+		decoder.setSyncPattern(new byte[] { (byte) 0x9d });
+		ByteRingBuffer buffer = createBuffer("ff9d0301aabb9d0202");
+		assertEquals("First frame", "aabb", decodePayload(decoder, buffer));
+		assertEquals("Incomplete frame", null, decodePayload(decoder, buffer));
+		buffer.put(ByteArrayConverter.hexToByteArray("cc"));
+		assertEquals("Second frame", "cc", decodePayload(decoder, buffer));
+		assertEquals("All consumed", 0, buffer.getContentSize());
+
+		// The length exceeds the max frame size
+		decoder.setMaxFrameSize(8);
+		buffer.put(ByteArrayConverter.hexToByteArray("9d20019d020101"));
+		assertEquals("Frame after invalid length", "01", decodePayload(decoder, buffer));
+		assertEquals("Discarded frames", 1, decoder.getDiscardedFrameCount());
+	}
+
+	@Test
+	public void testDiscardLoggedOncePerResync() {
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), 1, 1, ByteOrder.BIG_ENDIAN, 0, 2, 1);
+		decoder.setSyncPattern(new byte[] { (byte) 0x9d });
+		decoder.setMaxFrameSize(8);
+		int logCount = ShadowLog.getLogsForTag("FrameDecoder").size();
+		ByteRingBuffer buffer = createBuffer("9d20" + "9d20" + "9d20" + "9d0201aa");
+		assertEquals("Frame after resync", "aa", decodePayload(decoder, buffer));
+		assertEquals("Discarded frames", 3, decoder.getDiscardedFrameCount());
+		assertEquals("Logged once", logCount + 1, ShadowLog.getLogsForTag("FrameDecoder").size());
+
+		buffer.put(ByteArrayConverter.hexToByteArray("9d20" + "9d0201bb"));
+		assertEquals("Frame after next resync", "bb", decodePayload(decoder, buffer));
+		assertEquals("Discarded frames", 4, decoder.getDiscardedFrameCount());
+		assertEquals("Logged again after a decoded frame", logCount + 2, ShadowLog.getLogsForTag("FrameDecoder").size());
+	}
+
+	@Test
+	public void testIncrementalDecoding() {
+		final int[] parseCount = new int[1];
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), 0, 2, ByteOrder.BIG_ENDIAN, 0, 2, 1) {
+			@Override
+			protected Message decodeIncrementally(ByteRingBuffer inputBuffer) {
+				++parseCount[0];
+				return super.decodeIncrementally(inputBuffer);
+			}
+		};
+		byte[] frame = new byte[4096];
+		frame[0] = (byte) ((frame.length - 2) >> 8);
+		frame[1] = (byte) (frame.length - 2);
+		frame[2] = 0x01;
+
+		// A large frame arrives in 20-byte chunks
+		ByteRingBuffer buffer = new ByteRingBuffer(64, 8192);
+		Message message = null;
+		for (int i = 0; i < frame.length; i += 20) {
+			buffer.put(frame, i, Math.min(20, frame.length - i));
+			Message decoded = decoder.decodeMessage(buffer);
+			if (decoded != null) {
+				message = decoded;
+			}
+		}
+		assertTrue("Decoded message", message instanceof PayloadMessage);
+		assertEquals("Parsed only when enough data", 2, parseCount[0]);
+
+		// Scanning for the delimiter resumes from the last call
+		DelimiterFrameDecoder delimiterDecoder = new DelimiterFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), new byte[] { 0x0d, 0x0a }, 0, 1);
+		buffer.put(ByteArrayConverter.hexToByteArray("01aabb0d"));
+		assertNull("Partial delimiter", delimiterDecoder.decodeMessage(buffer));
+		buffer.put(ByteArrayConverter.hexToByteArray("0a"));
+		assertEquals("Frame with split delimiter", "aabb", decodePayload(delimiterDecoder, buffer));
+	}
+
+	@Test
+	public void testBatchDecoding() {
+		FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), 2, 0, 1);
+		ByteRingBuffer buffer = createBuffer("01aa02bb01cc02");
+		List<Message> messages = new ArrayList<>();
+		assertEquals("Decoded count", 3, decoder.decodeMessages(buffer, messages::add));
+		assertEquals("Payload of the last message", "cc", ((PayloadMessage) messages.get(2)).payload);
+		assertEquals("Incomplete frame is kept", 1, buffer.getContentSize());
+	}
+
+	@Test
+	public void testFixedLength() {
+		FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), 3, 0, 1);
+		ByteRingBuffer buffer = createBuffer("01aabb02cc");
+		assertEquals("First frame", "aabb", decodePayload(decoder, buffer));
+		assertNull("Incomplete frame", decoder.decodeMessage(buffer));
+		buffer.put(ByteArrayConverter.hexToByteArray("dd"));
+		assertTrue("Second frame", decoder.decodeMessage(buffer) instanceof OtherMessage);
+	}
+
+	@Test
+	public void testDelimiter() {
+		DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), new byte[] { 0x0d, 0x0a }, 0, 1);
+		decoder.setTrailerLength(1);
+		ByteRingBuffer buffer = createBuffer("0d0a01aabbff0d0a0102");
+		assertEquals("Frame after empty frame", "aabb", decodePayload(decoder, buffer));
+		assertNull("Incomplete frame", decoder.decodeMessage(buffer));
+		buffer.put(ByteArrayConverter.hexToByteArray("ee0d0a"));
+		assertEquals("Second frame", "02", decodePayload(decoder, buffer));
+
+		// The frame exceeds the max frame size
+		decoder.setMaxFrameSize(4);
+		buffer.put(ByteArrayConverter.hexToByteArray("01020304050607"));
+		assertNull("Too long frame", decoder.decodeMessage(buffer));
+		assertEquals("Possible beginning of delimiter is kept", 1, buffer.getContentSize());
+		buffer.put(ByteArrayConverter.hexToByteArray("08090d0a01cc000d0a"));
+		assertEquals("Frame after long frame", "cc", decodePayload(decoder, buffer));
+		assertEquals("Discarded frames", 1, decoder.getDiscardedFrameCount());
+	}
+
+	@Test
+	public void testSlip() {
+		SlipFrameDecoder decoder = new SlipFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), 0, 1);
+		ByteRingBuffer buffer = createBuffer("c001dbdcdbddaac0" + "01dbaac0" + "0211c0");
+		assertEquals("Unescaped frame", "c0dbaa", decodePayload(decoder, buffer));
+		assertTrue("Frame after invalid escape", decoder.decodeMessage(buffer) instanceof OtherMessage);
+		assertEquals("Discarded frames", 1, decoder.getDiscardedFrameCount());
+	}
+
+	@Test
+	public void testCobs() {
+		CobsFrameDecoder decoder = new CobsFrameDecoder(new TestMapper(PayloadMessage.class, OtherMessage.class), 0, 1);
+		// 01 00 aa 00 -> 02 01 02 aa 01
+		ByteRingBuffer buffer = createBuffer("000201" + "02aa0100" + "03010200");
+		assertEquals("Decoded frame", "00aa00", decodePayload(decoder, buffer));
+		assertEquals("Second frame", "02", decodePayload(decoder, buffer));
+		assertEquals("All consumed", 0, buffer.getContentSize());
+	}
+
+}
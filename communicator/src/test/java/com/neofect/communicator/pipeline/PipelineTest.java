@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.pipeline;
+
+import com.neofect.communicator.Connection;
+import com.neofect.communicator.Controller;
+import com.neofect.communicator.TestFixtures.DummyDevice;
+import com.neofect.communicator.TestFixtures.TestConnection;
+import com.neofect.communicator.TestFixtures.TestMapper;
+import com.neofect.communicator.message.Message;
+import com.neofect.communicator.message.MessageEncoder;
+import com.neofect.communicator.message.MessageImpl;
+import com.neofect.communicator.message.frame.FixedLengthFrameDecoder;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class PipelineTest {
+
+	public static class PingMessage extends MessageImpl {
+		@Override
+		public void decodePayload(byte[] data, int startIndex, int length) {
+		}
+	}
+
+	public static class NoiseMessage extends PingMessage {
+	}
+
+	/** Inverts the bytes read, and appends the sum of the bytes written */
+	private static class ChecksumStage implements InboundByteStage, OutboundByteStage {
+		@Override
+		public void readBytes(PipelineContext context, byte[] data, int offset, int length) {
+			byte[] inverted = new byte[length];
+			for (int i = 0; i < length; ++i) {
+				inverted[i] = (byte) ~data[offset + i];
+			}
+			context.readBytes(inverted, 0, length);
+		}
+
+		@Override
+		public void writeBytes(PipelineContext context, byte[] data, int offset, int length) {
+			byte[] frame = Arrays.copyOfRange(data, offset, offset + length + 1);
+			for (int i = 0; i < length; ++i) {
+				frame[length] += data[offset + i];
+			}
+			context.writeBytes(frame, 0, frame.length);
+		}
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	@Test
+	public void testStages() {
+		MessageEncoder encoder = new MessageEncoder(null) {
+			@Override
+			public byte[] encodeMessage(Message message) {
+				return new byte[] { 0x01, 0x02 };
+			}
+		};
+		final List<String> order = new ArrayList<>();
+		Controller<DummyDevice> controller = new Controller<DummyDevice>(encoder, new FixedLengthFrameDecoder(new TestMapper(PingMessage.class, NoiseMessage.class), 1, 0, 1)) {
+			@Override
+			protected void initPipeline(Connection connection, Pipeline pipeline) {
+				pipeline.addLast("checksum", new ChecksumStage());
+				pipeline.addLast("noise", (InboundMessageStage) (context, message) -> {
+					if (!(message instanceof NoiseMessage)) {
+						context.readMessage(message);
+					}
+				});
+				pipeline.addAfter("checksum", "first", (OutboundMessageStage) (context, message) -> {
+					order.add("first");
+					context.writeMessage(message);
+				});
+				pipeline.addLast("last", (OutboundMessageStage) (context, message) -> {
+					order.add("last");
+					context.writeMessage(message);
+				});
+			}
+		};
+		final List<Message> processed = new ArrayList<>();
+		controller.addCallbackAfterProcessInboundMessage((connection, message) -> processed.add(message));
+		TestConnection connection = new TestConnection(controller);
+		assertEquals("Stage names", "[checksum, first, noise, last]", connection.getPipeline().getNames().toString());
+
+		// 0xfe and 0xfd are inverted into a ping and a noise message
+		connection.receive("fefdfe");
+		assertEquals("Noise is dropped", 2, processed.size());
+
+		connection.sendMessage(new PingMessage());
+		assertEquals("Outbound messages flow backward", "[last, first]", order.toString());
+		assertEquals("Checksum appended", "[010203]", connection.written.toString());
+
+		connection.getPipeline().remove("checksum");
+		connection.sendMessage(new PingMessage());
+		assertEquals("Without checksum", "010203", connection.written.get(0));
+		assertEquals("Without checksum", "0102", connection.written.get(1));
+
+		try {
+			connection.getPipeline().addLast("noise", new ChecksumStage());
+			fail("Duplicate name must fail");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+}
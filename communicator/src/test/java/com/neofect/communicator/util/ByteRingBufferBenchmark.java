@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.util;
+
+/**
+ * Compares the throughput of put, peek and consume between the default capacity mode and
+ * the power-of-two capacity mode of {@link ByteRingBuffer}. It is not a unit test, run it manually.
+ */
+public class ByteRingBufferBenchmark {
+
+	private static final int CAPACITY = 1000;
+	private static final int CHUNK_SIZE = 20;
+	private static final int ITERATIONS = 5_000_000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		for (int round = 0; round < ROUNDS; ++round) {
+			long defaultNanos = run(new ByteRingBuffer(CAPACITY, CAPACITY));
+			long powerOfTwoNanos = run(new ByteRingBuffer(CAPACITY, CAPACITY, true));
+			System.out.println("Round " + round
+					+ ": default=" + toMegaBytesPerSecond(defaultNanos) + "MB/s"
+					+ ", powerOfTwo=" + toMegaBytesPerSecond(powerOfTwoNanos) + "MB/s");
+		}
+	}
+
+	private static long run(ByteRingBuffer buffer) {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		long checksum = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i) {
+			chunk[0] = (byte) i;
+			buffer.put(chunk);
+			for (int j = 0; j < CHUNK_SIZE; ++j) {
+				checksum += buffer.peek(j);
+			}
+			buffer.consume(CHUNK_SIZE);
+		}
+		long elapsedNanos = System.nanoTime() - startTime;
+		if (checksum == 42) {
+			System.out.println();
+		}
+		return elapsedNanos;
+	}
+
+	private static long toMegaBytesPerSecond(long nanos) {
+		return (long) ITERATIONS * CHUNK_SIZE * 1000 / nanos;
+	}
+
+}
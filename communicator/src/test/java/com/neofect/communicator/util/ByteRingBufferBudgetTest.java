@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.util;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ByteRingBufferBudgetTest {
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	@Test
+	public void testRefuseGrowth() {
+		ByteRingBufferBudget budget = new ByteRingBufferBudget(64, ByteRingBufferBudget.PressurePolicy.REFUSE_GROWTH);
+		ByteRingBuffer first = new ByteRingBuffer(16, 1024);
+		ByteRingBuffer second = new ByteRingBuffer(16, 1024);
+		first.setBudget(budget);
+		second.setBudget(budget);
+		assertEquals("Reserved bytes", 32, budget.getReservedBytes());
+
+		first.put(new byte[100]);
+		assertEquals("Capacity limited by budget", 48, first.getCapacity());
+		assertEquals("Content size", 48, first.getContentSize());
+		assertEquals("Reserved bytes", 64, budget.getReservedBytes());
+		assertEquals("Used bytes", 48, budget.getUsedBytes());
+
+		second.put(new byte[20]);
+		assertEquals("Refused capacity", 16, second.getCapacity());
+		assertEquals("Refused expansions", 2, budget.getRefusedExpansionCount());
+
+		// A power-of-two buffer uses a part of the granted capacity, and the rest is given back
+		ByteRingBufferBudget powerOfTwoBudget = new ByteRingBufferBudget(80, ByteRingBufferBudget.PressurePolicy.REFUSE_GROWTH);
+		ByteRingBuffer powerOfTwo = new ByteRingBuffer(16, 1024, true);
+		powerOfTwo.setBudget(powerOfTwoBudget);
+		powerOfTwo.put(new byte[100]);
+		assertEquals("Power-of-two capacity", 64, powerOfTwo.getCapacity());
+		assertEquals("Reserved bytes of power-of-two", 64, powerOfTwoBudget.getReservedBytes());
+	}
+
+	@Test
+	public void testOverwriteLargest() {
+		ByteRingBufferBudget budget = new ByteRingBufferBudget(160, ByteRingBufferBudget.PressurePolicy.OVERWRITE_LARGEST);
+		ByteRingBuffer large = new ByteRingBuffer(16, 1024);
+		ByteRingBuffer small = new ByteRingBuffer(16, 1024);
+		large.setBudget(budget);
+		small.setBudget(budget);
+
+		large.put(new byte[128]);
+		assertEquals("Large capacity", 128, large.getCapacity());
+
+		small.put(new byte[64]);
+		assertEquals("Small capacity is cut", 32, small.getCapacity());
+
+		// The largest buffer doesn't drop in the middle of a decode, but on its next put
+		large.mark();
+		large.consume(1);
+		assertEquals("Not reclaimed by consume", 128, large.getCapacity());
+		assertTrue("Mark kept", large.isMarked());
+		large.reset();
+		large.put(new byte[0]);
+		assertEquals("Large capacity after reclaim", 64, large.getCapacity());
+		assertEquals("Large content after reclaim", 64, large.getContentSize());
+		assertTrue("Dropped data is reported", large.hasDiscontinuity());
+		assertEquals("Dropped bytes", 64, large.getOverwrittenByteCount());
+		assertEquals("Reserved bytes after reclaim", 96, budget.getReservedBytes());
+
+		small.put(new byte[64]);
+		assertEquals("Small capacity after reclaim", 96, small.getCapacity());
+		assertEquals("Reserved bytes after expansion", 160, budget.getReservedBytes());
+	}
+
+}
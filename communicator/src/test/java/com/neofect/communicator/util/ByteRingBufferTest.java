@@ -23,7 +23,16 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLog;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 @RunWith(RobolectricTestRunner.class)
@@ -90,5 +99,251 @@ public class ByteRingBufferTest {
 		assertEquals("Head index", buffer.getHeadIndex(), (previousHeadIndex + numberToRead) % maxCapacity);
 		assertEquals("Content size", buffer.getContentSize(), maxCapacity - numberToRead);
 	}
-	
+
+	@Test
+	public void testLazyExpansionAndShrink() {
+		ByteRingBuffer buffer = new ByteRingBuffer(16, 1024);
+		assertEquals("Initial capacity", 16, buffer.getCapacity());
+
+		buffer.put(createByteArray(512));
+		assertEquals("Expanded capacity", 512, buffer.getCapacity());
+		buffer.consume(512);
+
+		// Sustained low occupancy makes the buffer shrink back to the initial capacity step by step.
+		for (int i = 0; i < 1024; ++i) {
+			buffer.put(createByteArray(1));
+			buffer.consume(1);
+		}
+		assertEquals("Shrunk capacity", 256, buffer.getCapacity());
+		for (int i = 0; i < 10 * 1024; ++i) {
+			buffer.put(createByteArray(1));
+			buffer.consume(1);
+		}
+		assertEquals("Capacity after idle", 16, buffer.getCapacity());
+
+		buffer.put(createByteArray(10));
+		byte[] read = buffer.read(10);
+		assertEquals("Content after shrink", (byte) (sequenceNumber - 1), read[9]);
+	}
+
+	@Test
+	public void testSlice() {
+		ByteRingBuffer buffer = new ByteRingBuffer(10, 10);
+		buffer.put(createByteArray(8));
+		buffer.consume(6);
+		buffer.put(createByteArray(6));
+
+		// Content wraps around the end of internal buffer.
+		ByteSlice slice = buffer.slice(1, 6);
+		assertEquals("Slice length", 6, slice.length());
+		assertFalse("Slice is not contiguous", slice.isContiguous());
+		assertEquals("First segment", 3, slice.getFirstSegmentLength());
+		assertEquals("Second segment", 3, slice.getSecondSegmentLength());
+		assertEquals("Slice content", "07 08 09 0a 0b 0c", ByteArrayConverter.byteArrayToHex(slice.toByteArray()));
+		assertEquals("Slice byte", (byte) 0x0a, slice.get(3));
+
+		buffer.consume(1);
+		assertFalse("Slice is released", slice.isValid());
+		try {
+			slice.get(0);
+			fail("Released slice must not be accessible");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testPrimitiveAccessors() {
+		ByteRingBuffer buffer = new ByteRingBuffer(16, 16);
+		buffer.put(new byte[12]);
+		buffer.consume(12);
+
+		// Values wrap around the end of internal buffer.
+		buffer.put(new byte[] { (byte) 0xfe, (byte) 0xdc, 0x12, 0x34, 0x56, 0x78, 0x3f, (byte) 0x80, 0x00, 0x00 });
+		assertEquals("Unsigned byte", 0xfe, buffer.peekUnsignedByte(0));
+		assertEquals("Short big-endian", (short) 0xfedc, buffer.peekShort(0, ByteOrder.BIG_ENDIAN));
+		assertEquals("Unsigned short little-endian", 0xdcfe, buffer.peekUnsignedShort(0, ByteOrder.LITTLE_ENDIAN));
+		assertEquals("Int big-endian", 0x12345678, buffer.peekInt(2, ByteOrder.BIG_ENDIAN));
+		assertEquals("Int little-endian", 0x78563412, buffer.peekInt(2, ByteOrder.LITTLE_ENDIAN));
+		assertEquals("Unsigned int", 0xfedc1234L, buffer.peekUnsignedInt(0, ByteOrder.BIG_ENDIAN));
+		assertEquals("Long", 0xfedc12345678L, buffer.peekLong(0, ByteOrder.BIG_ENDIAN) >>> 16);
+		assertEquals("Float", 1.0f, buffer.peekFloat(6, ByteOrder.BIG_ENDIAN), 0f);
+		assertEquals("Unsigned of 3 bytes", 0xdc1234L, buffer.peekUnsigned(1, 3, ByteOrder.BIG_ENDIAN));
+
+		assertEquals("Read short", (short) 0xfedc, buffer.readShort(ByteOrder.BIG_ENDIAN));
+		assertEquals("Read int", 0x12345678, buffer.readInt(ByteOrder.BIG_ENDIAN));
+		assertEquals("Read float", 1.0f, buffer.readFloat(ByteOrder.BIG_ENDIAN), 0f);
+		assertEquals("Content size", 0, buffer.getContentSize());
+	}
+
+	@Test
+	public void testIndexOfAndSkipTo() {
+		ByteRingBuffer buffer = new ByteRingBuffer(16, 16);
+		buffer.put(new byte[10]);
+		buffer.consume(10);
+		buffer.put(ByteArrayConverter.hexToByteArray("0102039d55aa039d55aa0102"));
+
+		assertEquals("Index of byte", 3, buffer.indexOf((byte) 0x9d));
+		assertEquals("Index of byte from index", 7, buffer.indexOf((byte) 0x9d, 4));
+		assertEquals("Index of byte across the end", 10, buffer.indexOf((byte) 0x01, 1));
+		assertEquals("Missing byte", -1, buffer.indexOf((byte) 0x77));
+		assertEquals("Index of pattern", 4, buffer.indexOf(new byte[] { 0x55, (byte) 0xaa }));
+		assertEquals("Index of pattern across the end", 7, buffer.indexOf(new byte[] { (byte) 0x9d, 0x55, (byte) 0xaa, 0x01 }));
+		assertEquals("Missing pattern", -1, buffer.indexOf(new byte[] { (byte) 0xaa, 0x55 }));
+
+		assertTrue("Skip to pattern", buffer.skipTo(new byte[] { 0x03, (byte) 0x9d }));
+		assertEquals("Content after skip", 10, buffer.getContentSize());
+		assertFalse("Skip to missing pattern", buffer.skipTo(new byte[] { 0x02, 0x03 }));
+		assertEquals("Possible beginning of pattern is kept", 0x02, buffer.peek(0));
+		assertFalse("Skip to missing byte", buffer.skipTo((byte) 0x77));
+		assertEquals("All consumed", 0, buffer.getContentSize());
+	}
+
+	@Test
+	public void testPowerOfTwoCapacity() {
+		ByteRingBuffer buffer = new ByteRingBuffer(10, 40, true);
+		assertEquals("Rounded capacity", 16, buffer.getCapacity());
+		assertEquals("Rounded down max capacity", 32, buffer.getMaxCapacity());
+		assertEquals("Max capacity not below capacity", 16, new ByteRingBuffer(10, 12, true).getMaxCapacity());
+
+		buffer.put(createByteArray(20));
+		assertEquals("Expanded capacity", 32, buffer.getCapacity());
+		buffer.consume(15);
+		buffer.put(createByteArray(22));
+		assertEquals("Content size", 27, buffer.getContentSize());
+		assertEquals("Head index", 15, buffer.getHeadIndex());
+
+		// Overwrites the oldest data like the default mode.
+		buffer.put(createByteArray(7));
+		assertEquals("Content size at max", 32, buffer.getContentSize());
+		assertEquals("Oldest data", (byte) 17, buffer.peek(0));
+		assertEquals("Newest data", (byte) 48, buffer.peek(31));
+
+		buffer.changeMaxCapacity(100);
+		assertEquals("Changed max capacity", 64, buffer.getMaxCapacity());
+	}
+
+	@Test
+	public void testOverflowPolicy() {
+		ByteRingBuffer buffer = new ByteRingBuffer(16, 16);
+		buffer.put(createByteArray(12));
+		assertEquals("Put with overwrite", 8, buffer.offer(createByteArray(8), 0, 8));
+		assertEquals("Overwritten bytes", 4, buffer.getOverwrittenByteCount());
+		assertTrue("Discontinuity after overwrite", buffer.hasDiscontinuity());
+		buffer.clearDiscontinuity();
+
+		buffer.setOverflowPolicy(ByteRingBuffer.OverflowPolicy.REJECT_NEWEST);
+		buffer.consume(6);
+		assertEquals("Put with reject", 6, buffer.offer(createByteArray(10), 0, 10));
+		assertEquals("Rejected bytes", 4, buffer.getRejectedByteCount());
+		assertEquals("Oldest data is kept", (byte) 10, buffer.peek(0));
+		assertTrue("Discontinuity after reject", buffer.hasDiscontinuity());
+		buffer.clearDiscontinuity();
+
+		buffer.setOverflowCallback((overflowedBuffer, requiredSize) -> overflowedBuffer.consume(requiredSize));
+		assertEquals("Put with callback", 5, buffer.offer(createByteArray(5), 0, 5));
+		assertEquals("Oldest data consumed by callback", (byte) 15, buffer.peek(0));
+		assertFalse("No data lost with callback", buffer.hasDiscontinuity());
+
+		buffer.setOverflowPolicy(ByteRingBuffer.OverflowPolicy.BLOCK);
+		buffer.setBlockTimeoutMillis(10);
+		assertEquals("Put with block timeout", 0, buffer.offer(createByteArray(3), 0, 3));
+		assertEquals("Rejected bytes after timeout", 7, buffer.getRejectedByteCount());
+	}
+
+	@Test
+	public void testFillFrom() throws IOException {
+		ByteRingBuffer buffer = new ByteRingBuffer(16, 16);
+		buffer.put(createByteArray(10));
+		buffer.consume(10);
+
+		// Fills the free region up to the end of the internal buffer first, then from its beginning.
+		ByteArrayInputStream inputStream = new ByteArrayInputStream(createByteArray(20));
+		assertEquals("First fill", 6, buffer.fillFrom(inputStream));
+		assertEquals("Second fill", 10, buffer.fillFrom(inputStream));
+		assertEquals("Wrapped data", (byte) 16, buffer.peek(6));
+
+		// Drops the newest data when full with REJECT_NEWEST
+		buffer.setOverflowPolicy(ByteRingBuffer.OverflowPolicy.REJECT_NEWEST);
+		assertEquals("Fill when full", 0, buffer.fillFrom(inputStream));
+		assertEquals("Rejected bytes", 4, buffer.getRejectedByteCount());
+		assertEquals("End of stream", -1, buffer.fillFrom(inputStream));
+
+		ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(createByteArray(4)));
+		buffer.consume(8);
+		assertEquals("Fill from channel", 4, buffer.fillFrom(channel));
+		assertEquals("Content size", 12, buffer.getContentSize());
+		assertEquals("Newest data", (byte) 33, buffer.peek(11));
+	}
+
+	@Test
+	public void testMarkAndReset() {
+		ByteRingBuffer buffer = new ByteRingBuffer(8, 16);
+		buffer.put(createByteArray(6));
+		buffer.mark();
+		assertEquals("Read after mark", 0x0001, buffer.readUnsignedShort(ByteOrder.BIG_ENDIAN));
+		assertEquals("Content size after read", 4, buffer.getContentSize());
+		assertEquals("Marked data is not available", 2, buffer.getAvailableSize());
+		buffer.reset();
+		assertFalse("Not marked after reset", buffer.isMarked());
+		assertEquals("Content size after reset", 6, buffer.getContentSize());
+		assertEquals("Head after reset", (byte) 0, buffer.peek(0));
+
+		// Expansion keeps the marked data
+		buffer.mark();
+		buffer.consume(4);
+		buffer.put(createByteArray(8));
+		assertEquals("Expanded capacity", 14, buffer.getCapacity());
+		buffer.reset();
+		assertEquals("Content size after reset", 14, buffer.getContentSize());
+		assertEquals("Head after reset", (byte) 0, buffer.peek(0));
+		assertEquals("Newest data", (byte) 13, buffer.peek(13));
+
+		buffer.mark();
+		buffer.consume(10);
+		buffer.commit();
+		assertEquals("Available after commit", 10, buffer.getAvailableSize());
+
+		// Overwriting the oldest data invalidates the mark
+		buffer.mark();
+		buffer.consume(4);
+		buffer.put(createByteArray(16));
+		assertFalse("Mark invalidated", buffer.isMarked());
+		assertTrue("Discontinuity", buffer.hasDiscontinuity());
+		try {
+			buffer.reset();
+			fail("Reset without mark should fail");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testBlockingOverflow() throws InterruptedException {
+		final ByteRingBuffer buffer = new ByteRingBuffer(16, 16);
+		buffer.setOverflowPolicy(ByteRingBuffer.OverflowPolicy.BLOCK);
+		buffer.setBlockTimeoutMillis(5000);
+		buffer.put(createByteArray(16));
+
+		Thread consumer = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				return;
+			}
+			synchronized (buffer) {
+				buffer.consume(8);
+			}
+		});
+		consumer.start();
+		int putSize;
+		synchronized (buffer) {
+			putSize = buffer.offer(createByteArray(8), 0, 8);
+		}
+		consumer.join();
+		assertEquals("Put after the consumer made room", 8, putSize);
+		assertEquals("No rejected bytes", 0, buffer.getRejectedByteCount());
+		assertFalse("No discontinuity", buffer.hasDiscontinuity());
+	}
+
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-2015 Neofect Co., Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.neofect.communicator.util;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SpscByteRingBufferTest {
+
+	@BeforeClass
+	public static void setUpClass() {
+		ShadowLog.stream = System.out;
+	}
+
+	@Test
+	public void testOfferAndDrain() {
+		SpscByteRingBuffer queue = new SpscByteRingBuffer(12);
+		assertEquals("Capacity", 16, queue.getCapacity());
+
+		byte[] data = new byte[10];
+		for (int i = 0; i < data.length; ++i) {
+			data[i] = (byte) i;
+		}
+		assertEquals("Offered", 10, queue.offer(data, 10));
+		byte[] result = new byte[8];
+		assertEquals("Polled", 8, queue.poll(result, 0, 8));
+		assertEquals("Polled data", (byte) 7, result[7]);
+
+		// Wraps around the end of the internal buffer
+		assertEquals("Offered", 10, queue.offer(data, 10));
+		assertEquals("Content size", 12, queue.getContentSize());
+		assertEquals("Whole chunk is dropped when full", 0, queue.offer(data, 10));
+		assertEquals("Dropped until the gap is acknowledged", 0, queue.offer(data, 2));
+		assertEquals("Dropped bytes", 12, queue.getDroppedByteCount());
+		assertFalse("Gap isn't reached yet", queue.acknowledgeGap());
+
+		ByteRingBuffer ringBuffer = new ByteRingBuffer(64);
+		assertEquals("Drained", 12, queue.drainTo(ringBuffer));
+		assertEquals("Ring buffer content size", 12, ringBuffer.getContentSize());
+		assertEquals("First byte", (byte) 8, ringBuffer.peek(0));
+		assertEquals("Wrapped byte", (byte) 0, ringBuffer.peek(2));
+		assertEquals("Last byte before the gap", (byte) 9, ringBuffer.peek(11));
+		assertTrue("Gap is reached", queue.acknowledgeGap());
+		assertFalse("No gap", queue.hasGap());
+		assertEquals("Offered after the gap", 2, queue.offer(data, 2));
+		assertEquals("Drained after the gap", 2, queue.drainTo(ringBuffer));
+		assertEquals("Drained when empty", 0, queue.drainTo(ringBuffer));
+	}
+
+	@Test
+	public void testConcurrentProducerAndConsumer() throws InterruptedException {
+		final SpscByteRingBuffer queue = new SpscByteRingBuffer(256);
+		final int totalSize = 1024 * 1024;
+		Thread producer = new Thread(() -> {
+			byte[] chunk = new byte[37];
+			int written = 0;
+			while (written < totalSize) {
+				int length = Math.min(chunk.length, totalSize - written);
+				for (int i = 0; i < length; ++i) {
+					chunk[i] = (byte) (written + i);
+				}
+				int offset = 0;
+				while (offset < length) {
+					int size = Math.min(length - offset, queue.getCapacity() - queue.getContentSize());
+					offset += queue.offer(chunk, offset, size);
+				}
+				written += length;
+			}
+		});
+		producer.start();
+
+		byte[] result = new byte[50];
+		int read = 0;
+		int mismatchCount = 0;
+		while (read < totalSize) {
+			int size = queue.poll(result, 0, result.length);
+			for (int i = 0; i < size; ++i) {
+				if (result[i] != (byte) (read + i)) {
+					++mismatchCount;
+				}
+			}
+			read += size;
+		}
+		producer.join();
+		assertEquals("Mismatched bytes", 0, mismatchCount);
+		assertEquals("Dropped bytes", 0, queue.getDroppedByteCount());
+	}
+
+}
@@ -21,17 +21,23 @@ public class SimpleRemoteDecoder extends MessageDecoder {
 		super(new MessageMapper());
 	}
 
-	@Override
-	public Message decodeMessage(ByteRingBuffer inputBuffer) {
-		final byte HEADER_BYTE = (byte) 0x9d;
+	private static final byte HEADER_BYTE = (byte) 0x9d;
 
-		// Find header byte
-		while(inputBuffer.getContentSize() > 0 && inputBuffer.peek(0) != HEADER_BYTE) {
+	@Override
+	public void onDiscontinuity(ByteRingBuffer inputBuffer) {
+		// The first message may be partially overwritten. Drop it and find the next header.
+		if (inputBuffer.getContentSize() > 0) {
 			inputBuffer.consume(1);
 		}
+		inputBuffer.skipTo(HEADER_BYTE);
+	}
 
+	@Override
+	public Message decodeMessage(ByteRingBuffer inputBuffer) {
+
+		// Find header byte, discarding everything before it.
 		// If failed to find header byte, just return null to try later
-		if (inputBuffer.getContentSize() == 0) {
+		if (!inputBuffer.skipTo(HEADER_BYTE)) {
 			return null;
 		}
 
@@ -54,12 +60,15 @@ public class SimpleRemoteDecoder extends MessageDecoder {
 			return null;
 		}
 		
-		// Get whole message data
-		byte[] messageBytes = inputBuffer.read(messageLength);
-		
-		// Create a message instance
+		// Create a message instance from the payload without copying it
 		byte[] messageIdArray = new byte[] { messageId };
-		Message message = decodeMessagePayload(messageIdArray, messageBytes, 2, messageLength - 2);
+		Message message;
+		try {
+			message = decodeMessagePayload(messageIdArray, inputBuffer.slice(2, messageLength - 2));
+		} finally {
+			// Remove the whole message data from the buffer
+			inputBuffer.consume(messageLength);
+		}
 		
 		// Return the message instance
 		return message;
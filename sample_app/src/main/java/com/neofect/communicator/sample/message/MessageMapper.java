@@ -6,35 +6,40 @@
 
 package com.neofect.communicator.sample.message;
 
+import com.neofect.communicator.message.IndexedMessageClassMapper;
 import com.neofect.communicator.message.Message;
-import com.neofect.communicator.message.MessageClassMapper;
+import com.neofect.communicator.message.MessageFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * @author neo.kim@neofect.com
  * @date Feb 18, 2015
  */
-public class MessageMapper implements MessageClassMapper {
+public class MessageMapper extends IndexedMessageClassMapper {
+
+	public MessageMapper() {
+		super(1);
+		register(0x01, ButtonPressedMessage.class);
+		register(0x02, LowBatteryAlertMessage.class);
+		register(0x03, StartBeepMessage.class);
+	}
 
+	/**
+	 * StartBeepMessage is sent only.
+	 */
 	@Override
-	public byte[] getMessageIdByClass(Class<? extends Message> messageClass) {
-		if (messageClass == ButtonPressedMessage.class) {
-			return new byte[] { 0x01 };
-		} else if (messageClass == LowBatteryAlertMessage.class) {
-			return new byte[] { 0x02 };
-		} else if (messageClass == StartBeepMessage.class) {
-			return new byte[] { 0x03 };
-		}
-		return null;
+	public Collection<Class<? extends Message>> getMessageClasses() {
+		return Arrays.asList(ButtonPressedMessage.class, LowBatteryAlertMessage.class);
 	}
-	
+
 	@Override
-	public Class<? extends Message> getMessageClassById(byte[] messageId) {
-		if (messageId[0] == 0x01) {
-			return ButtonPressedMessage.class;
-		} else if (messageId[0] == 0x02) {
-			return LowBatteryAlertMessage.class;
-		} else if (messageId[0] == 0x03) {
-			return StartBeepMessage.class;
+	public MessageFactory<? extends Message> getMessageFactory(Class<? extends Message> messageClass) {
+		if (messageClass == ButtonPressedMessage.class) {
+			return ButtonPressedMessage::new;
+		} else if (messageClass == LowBatteryAlertMessage.class) {
+			return LowBatteryAlertMessage::new;
 		}
 		return null;
 	}